@@ -0,0 +1,396 @@
+package com.greysonparrelli.permisodemo;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Application;
+import android.app.DialogFragment;
+import android.content.pm.ActivityInfo;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.greysonparrelli.permiso.Permiso;
+import com.greysonparrelli.permiso.PermisoDialogFragment;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rotates and recreates the demo's {@link MainActivity} over and over while rationales are open and permission requests
+ * are pending, then checks that every destroyed Activity can be garbage collected once those flows have finished.
+ * Permiso holds request callbacks in a singleton and its rationale dialog is a retained fragment, so this is where
+ * Activities would leak.
+ * <p>
+ * Reports the number of leaked Activities and the retained heap through the instrumentation status (see
+ * {@code am instrument -r}) and logcat, and fails if either goes over its threshold. The thresholds can be changed
+ * with the {@code maxLeakedActivities} and {@code maxRetainedHeapKb} instrumentation arguments. For example:
+ * <pre>
+ * ./gradlew :app:connectedDebugAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.greysonparrelli.permisodemo.MemoryRetentionBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class MemoryRetentionBenchmark {
+
+    private static final String TAG = "PermisoBenchmark";
+
+    private static final int ITERATIONS = 20;
+    private static final long TIMEOUT_MS = 5000;
+    private static final long POLL_INTERVAL_MS = 20;
+
+    private static final int DEFAULT_MAX_LEAKED_ACTIVITIES = 0;
+    private static final int DEFAULT_MAX_RETAINED_HEAP_KB = 4096;
+
+    @Rule
+    public ActivityTestRule<MainActivity> mActivityRule = new ActivityTestRule<>(MainActivity.class, false, false);
+
+    private ActivityTracker mTracker;
+    private long mBaselineHeapBytes;
+
+    @Before
+    public void setUp() {
+        mTracker = new ActivityTracker();
+        getApplication().registerActivityLifecycleCallbacks(mTracker);
+        mActivityRule.launchActivity(null);
+        waitForActivity(null);
+
+        forceGc();
+        mBaselineHeapBytes = usedHeapBytes();
+    }
+
+    @After
+    public void tearDown() {
+        Activity activity = mTracker.getLatest();
+        if (activity != null) {
+            setRequestedOrientation(activity, ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
+        }
+        getApplication().unregisterActivityLifecycleCallbacks(mTracker);
+    }
+
+    @Test
+    public void rotationsWithOpenRationale() throws Exception {
+        final AtomicBoolean rationaleClosed = new AtomicBoolean();
+        final Activity opener = mTracker.getLatest();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Permiso.getInstance().showRationaleInDialog("Rationale", "Memory retention benchmark", null,
+                        new Permiso.IOnRationaleProvided() {
+                            @Override
+                            public void onRationaleProvided() {
+                                // Referencing the Activity like a real rationale callback would
+                                Log.d(TAG, "Rationale opened from " + opener + " closed");
+                                rationaleClosed.set(true);
+                            }
+                        });
+            }
+        });
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            rotate(i);
+        }
+
+        closeRationale();
+        waitFor(rationaleClosed);
+        assertRetentionWithinThresholds("rationale_rotation");
+    }
+
+    @Test
+    public void recreationsWithPendingRequests() throws Exception {
+        // There's nothing to leave pending without runtime permissions
+        Assume.assumeTrue(Build.VERSION.SDK_INT >= 23);
+
+        int pendingIterations = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Activity requester = mTracker.getLatest();
+            final AtomicBoolean answered = new AtomicBoolean();
+            final AtomicBoolean rationaleRequested = new AtomicBoolean();
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    Permiso.getInstance().requestPermissions(new Permiso.IOnPermissionResult() {
+                        @Override
+                        public void onPermissionResult(Permiso.ResultSet resultSet) {
+                            Log.d(TAG, "Request from " + requester + " answered");
+                            answered.set(true);
+                        }
+
+                        @Override
+                        public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+                            rationaleRequested.set(true);
+                            Permiso.getInstance().showRationaleInDialog("Rationale", "Memory retention benchmark",
+                                    null, callback);
+                        }
+                    }, Manifest.permission.CAMERA);
+                }
+            });
+            if (answered.get()) {
+                // Already granted, so nothing was ever pending
+                continue;
+            }
+            pendingIterations++;
+
+            // Recreate during the rationale, then move on to the system dialog
+            if (rationaleRequested.get()) {
+                recreate();
+                closeRationale();
+            }
+
+            // Recreate while the system dialog is up, then deny it
+            if (!waitFor(answered, TIMEOUT_MS / 5)) {
+                recreate();
+                dismissSystemDialog();
+            }
+            waitFor(answered);
+        }
+
+        Log.i(TAG, "Pending requests during recreation: " + pendingIterations + "/" + ITERATIONS);
+        assertRetentionWithinThresholds("pending_request_recreation");
+    }
+
+
+    // =====================================================================
+    // Measurement
+    // =====================================================================
+
+    private void assertRetentionWithinThresholds(String name) {
+        forceGc();
+        int leakedActivities = mTracker.countLeaked();
+        long retainedHeapKb = Math.max(0, usedHeapBytes() - mBaselineHeapBytes) / 1024;
+
+        Bundle results = new Bundle();
+        results.putInt(name + "_leaked_activities", leakedActivities);
+        results.putInt(name + "_destroyed_activities", mTracker.countDestroyed());
+        results.putLong(name + "_retained_heap_kb", retainedHeapKb);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+        Log.i(TAG, name + ": leaked_activities=" + leakedActivities + " destroyed_activities="
+                + mTracker.countDestroyed() + " retained_heap_kb=" + retainedHeapKb);
+
+        int maxLeakedActivities = getIntArgument("maxLeakedActivities", DEFAULT_MAX_LEAKED_ACTIVITIES);
+        int maxRetainedHeapKb = getIntArgument("maxRetainedHeapKb", DEFAULT_MAX_RETAINED_HEAP_KB);
+        assertTrue(leakedActivities + " destroyed activities were leaked (max " + maxLeakedActivities + ")",
+                leakedActivities <= maxLeakedActivities);
+        assertTrue(retainedHeapKb + "KB of heap was retained (max " + maxRetainedHeapKb + "KB)",
+                retainedHeapKb <= maxRetainedHeapKb);
+    }
+
+    /**
+     * Collects as much garbage as we can, including anything only reachable from objects waiting to be finalized.
+     */
+    private static void forceGc() {
+        for (int i = 0; i < 3; i++) {
+            Runtime.getRuntime().gc();
+            // Give the reference queue daemon a chance to clear references
+            SystemClock.sleep(100);
+            System.runFinalization();
+        }
+    }
+
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int getIntArgument(String key, int defaultValue) {
+        String value = InstrumentationRegistry.getArguments().getString(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+
+    // =====================================================================
+    // Driving the app
+    // =====================================================================
+
+    /**
+     * Rotates the current Activity, falling back to recreating it if the orientation it's given is the one it already
+     * has.
+     */
+    private void rotate(int iteration) {
+        Activity activity = mTracker.getLatest();
+        setRequestedOrientation(activity, iteration % 2 == 0
+                ? ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE
+                : ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
+        if (!waitForActivity(activity, TIMEOUT_MS / 5)) {
+            recreate();
+        }
+    }
+
+    private void recreate() {
+        final Activity activity = mTracker.getLatest();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.recreate();
+            }
+        });
+        waitForActivity(activity);
+    }
+
+    /**
+     * Closes the open rationale as if the user had tapped outside of it.
+     */
+    private void closeRationale() {
+        final Activity activity = mTracker.getLatest();
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        final AtomicBoolean closed = new AtomicBoolean();
+        while (!closed.get() && SystemClock.uptimeMillis() < deadline) {
+            runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    DialogFragment fragment = (DialogFragment) activity.getFragmentManager()
+                            .findFragmentByTag(PermisoDialogFragment.TAG);
+                    if (fragment != null && fragment.getDialog() != null) {
+                        fragment.getDialog().cancel();
+                        closed.set(true);
+                    }
+                }
+            });
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        assertTrue("Rationale never appeared", closed.get());
+    }
+
+    /**
+     * Denies the system permission dialog by pressing back, as long as it's the dialog that has focus and not us.
+     */
+    private void dismissSystemDialog() throws IOException {
+        Activity activity = mTracker.getLatest();
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (activity.hasWindowFocus() && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        if (activity.hasWindowFocus()) {
+            return;
+        }
+        ParcelFileDescriptor output = InstrumentationRegistry.getInstrumentation().getUiAutomation()
+                .executeShellCommand("input keyevent KEYCODE_BACK");
+        output.close();
+    }
+
+    private static void setRequestedOrientation(final Activity activity, final int orientation) {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.setRequestedOrientation(orientation);
+            }
+        });
+    }
+
+    /**
+     * Waits for an Activity other than the given one to be created.
+     */
+    private void waitForActivity(Activity previous) {
+        assertTrue("No new activity was created", waitForActivity(previous, TIMEOUT_MS));
+    }
+
+    private boolean waitForActivity(Activity previous, long timeoutMs) {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while (SystemClock.uptimeMillis() < deadline) {
+            Activity latest = mTracker.getLatest();
+            if (latest != null && latest != previous) {
+                InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+                return true;
+            }
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        return false;
+    }
+
+    private static void waitFor(AtomicBoolean condition) {
+        assertTrue("Timed out", waitFor(condition, TIMEOUT_MS));
+    }
+
+    private static boolean waitFor(AtomicBoolean condition, long timeoutMs) {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while (!condition.get() && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        return condition.get();
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private static Application getApplication() {
+        return (Application) InstrumentationRegistry.getTargetContext().getApplicationContext();
+    }
+
+    /**
+     * Keeps weak references to every Activity that's created and every one that's destroyed.
+     */
+    private static class ActivityTracker implements Application.ActivityLifecycleCallbacks {
+        private final List<WeakReference<Activity>> mDestroyed = new ArrayList<>();
+        private volatile WeakReference<Activity> mLatest;
+
+        Activity getLatest() {
+            WeakReference<Activity> latest = mLatest;
+            return latest != null ? latest.get() : null;
+        }
+
+        synchronized int countDestroyed() {
+            return mDestroyed.size();
+        }
+
+        /**
+         * @return The number of destroyed Activities that are still reachable. Call
+         *         {@link MemoryRetentionBenchmark#forceGc()} first.
+         */
+        synchronized int countLeaked() {
+            int leaked = 0;
+            for (WeakReference<Activity> activity : mDestroyed) {
+                if (activity.get() != null) {
+                    leaked++;
+                }
+            }
+            return leaked;
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            mLatest = new WeakReference<>(activity);
+        }
+
+        @Override
+        public synchronized void onActivityDestroyed(Activity activity) {
+            mDestroyed.add(new WeakReference<>(activity));
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.greysonparrelli.permisodemo;
 import android.Manifest;
 import android.content.Intent;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.view.View;
 import android.widget.Toast;
 
@@ -17,6 +18,8 @@ import com.greysonparrelli.permiso.PermisoDialogFragment;
  */
 public class MainActivity extends PermisoActivity {
 
+    private final ResultTimer mResultTimer = new ResultTimer();
+
     // =====================================================================
     // Overrides
     // =====================================================================
@@ -52,6 +55,20 @@ public class MainActivity extends PermisoActivity {
                 onNonPermisoClick();
             }
         });
+        findViewById(R.id.btn_stress).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                onStressClick();
+            }
+        });
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        // Only here so the benchmark module can measure how long results take to reach the callbacks
+        mResultTimer.onResultReceived();
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        mResultTimer.onResultHandled();
     }
 
 
@@ -67,6 +84,7 @@ public class MainActivity extends PermisoActivity {
         Permiso.getInstance().requestPermissions(new Permiso.IOnPermissionResult() {
             @Override
             public void onPermissionResult(Permiso.ResultSet resultSet) {
+                mResultTimer.onCallbackInvoked();
                 if (resultSet.isPermissionGranted(Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
                     Toast.makeText(MainActivity.this, R.string.permission_granted, Toast.LENGTH_SHORT).show();
                 } else if (resultSet.isPermissionPermanentlyDenied(Manifest.permission.WRITE_EXTERNAL_STORAGE)){
@@ -96,6 +114,7 @@ public class MainActivity extends PermisoActivity {
         Permiso.getInstance().requestPermissions(new Permiso.IOnPermissionResult() {
             @Override
             public void onPermissionResult(Permiso.ResultSet resultSet) {
+                mResultTimer.onCallbackInvoked();
                 int numGranted = 0;
                 if (resultSet.isPermissionGranted(Manifest.permission.READ_CONTACTS)) {
                     numGranted++;
@@ -134,6 +153,7 @@ public class MainActivity extends PermisoActivity {
         Permiso.getInstance().requestPermissions(new Permiso.IOnPermissionResult() {
             @Override
             public void onPermissionResult(Permiso.ResultSet resultSet) {
+                mResultTimer.onCallbackInvoked();
                 if (resultSet.areAllPermissionsGranted()) {
                     Toast.makeText(
                             MainActivity.this,
@@ -164,4 +184,11 @@ public class MainActivity extends PermisoActivity {
     private void onNonPermisoClick() {
         startActivity(new Intent(this, NonPermisoActivity.class));
     }
+
+    /**
+     * Starts {@link StressActivity}.
+     */
+    private void onStressClick() {
+        startActivity(new Intent(this, StressActivity.class));
+    }
 }
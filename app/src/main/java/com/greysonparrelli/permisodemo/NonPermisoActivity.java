@@ -14,6 +14,8 @@ import com.greysonparrelli.permiso.Permiso;
  */
 public class NonPermisoActivity extends AppCompatActivity {
 
+    private final ResultTimer mResultTimer = new ResultTimer();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -45,11 +47,14 @@ public class NonPermisoActivity extends AppCompatActivity {
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        mResultTimer.onResultReceived();
 
         //
         // Third, forward the results of this method to Permiso
         //
         Permiso.getInstance().onRequestPermissionResult(requestCode, permissions, grantResults);
+
+        mResultTimer.onResultHandled();
     }
 
     private void onRequestClick() {
@@ -59,6 +64,7 @@ public class NonPermisoActivity extends AppCompatActivity {
         Permiso.getInstance().requestPermissions(new Permiso.IOnPermissionResult() {
             @Override
             public void onPermissionResult(Permiso.ResultSet resultSet) {
+                mResultTimer.onCallbackInvoked();
                 if (resultSet.isPermissionGranted(Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
                     Toast.makeText(NonPermisoActivity.this, R.string.permission_granted, Toast.LENGTH_SHORT).show();
                 } else if (resultSet.isPermissionPermanentlyDenied(Manifest.permission.WRITE_EXTERNAL_STORAGE)){
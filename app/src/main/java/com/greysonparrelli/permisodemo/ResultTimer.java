@@ -0,0 +1,38 @@
+package com.greysonparrelli.permisodemo;
+
+import android.util.Log;
+
+/**
+ * Times how long a permission result takes to get from {@code onRequestPermissionsResult()} to each callback that's
+ * waiting on it, and logs it so the benchmark module can pick it up. You don't need anything like this to use Permiso.
+ */
+final class ResultTimer {
+
+    static final String TAG = "PermisoDemo";
+
+    private long mResultReceivedNanos;
+
+    /**
+     * Call before forwarding a result to Permiso.
+     */
+    void onResultReceived() {
+        mResultReceivedNanos = System.nanoTime();
+    }
+
+    /**
+     * Call after Permiso has handled a result. Callbacks invoked from then on didn't come from a system result (the
+     * permissions were already granted, for example), so they aren't timed.
+     */
+    void onResultHandled() {
+        mResultReceivedNanos = 0;
+    }
+
+    /**
+     * Call at the start of every permission callback.
+     */
+    void onCallbackInvoked() {
+        if (mResultReceivedNanos > 0) {
+            Log.i(TAG, "result_to_callback_us=" + (System.nanoTime() - mResultReceivedNanos) / 1000);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.greysonparrelli.permisodemo;
+
+import android.Manifest;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.widget.TextView;
+
+import com.greysonparrelli.permiso.Permiso;
+import com.greysonparrelli.permiso.PermisoActivity;
+
+/**
+ * An activity that fires hundreds of overlapping permission requests at once. Used by the benchmark module to measure
+ * how long it takes Permiso to get from a system result to every one of the callbacks that are waiting on it.
+ */
+public class StressActivity extends PermisoActivity {
+
+    /**
+     * Optional intent extra to override the number of requests that are fired.
+     */
+    public static final String EXTRA_REQUEST_COUNT = "request_count";
+
+    private static final int DEFAULT_REQUEST_COUNT = 300;
+
+    /**
+     * The permission sets we cycle through. They overlap on purpose so that most requests get merged into an active one.
+     */
+    private static final String[][] PERMISSION_SETS = {
+            { Manifest.permission.CAMERA },
+            { Manifest.permission.READ_CONTACTS },
+            { Manifest.permission.READ_CONTACTS, Manifest.permission.READ_CALENDAR },
+            { Manifest.permission.CAMERA, Manifest.permission.READ_CONTACTS, Manifest.permission.READ_CALENDAR },
+            { Manifest.permission.WRITE_EXTERNAL_STORAGE }
+    };
+
+    private TextView mResultsView;
+
+    private int mRequestCount;
+    private int mCallbackCount;
+    private int mTimedCallbackCount;
+    private long mResultReceivedNanos;
+    private long mTotalResultToCallbackNanos;
+    private long mMaxResultToCallbackNanos;
+
+
+    // =====================================================================
+    // Overrides
+    // =====================================================================
+
+    @SuppressWarnings("ConstantConditions")
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_stress);
+
+        mRequestCount = getIntent().getIntExtra(EXTRA_REQUEST_COUNT, DEFAULT_REQUEST_COUNT);
+        mResultsView = (TextView) findViewById(R.id.txt_stress_results);
+
+        findViewById(R.id.btn_stress_start).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                onStartClick();
+            }
+        });
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        // Note the time before Permiso sees the result so we can measure how long it takes to reach the callbacks
+        mResultReceivedNanos = System.nanoTime();
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+    }
+
+
+    // =====================================================================
+    // Click Listeners
+    // =====================================================================
+
+    /**
+     * Fires all of the requests back-to-back without waiting for any of them to finish.
+     */
+    private void onStartClick() {
+        mCallbackCount = 0;
+        mTimedCallbackCount = 0;
+        mResultReceivedNanos = 0;
+        mTotalResultToCallbackNanos = 0;
+        mMaxResultToCallbackNanos = 0;
+        mResultsView.setText(null);
+
+        for (int i = 0; i < mRequestCount; i++) {
+            Permiso.getInstance().requestPermissions(new Permiso.IOnPermissionResult() {
+                @Override
+                public void onPermissionResult(Permiso.ResultSet resultSet) {
+                    onRequestFinished();
+                }
+
+                @Override
+                public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+                    // Rationale dialogs would stall the benchmark, so skip straight to the request
+                    callback.onRationaleProvided();
+                }
+            }, PERMISSION_SETS[i % PERMISSION_SETS.length]);
+        }
+    }
+
+
+    // =====================================================================
+    // Private
+    // =====================================================================
+
+    private void onRequestFinished() {
+        mCallbackCount++;
+
+        // Requests for permissions that were already granted finish before any system result arrives
+        if (mResultReceivedNanos > 0) {
+            long latency = System.nanoTime() - mResultReceivedNanos;
+            mTimedCallbackCount++;
+            mTotalResultToCallbackNanos += latency;
+            mMaxResultToCallbackNanos = Math.max(mMaxResultToCallbackNanos, latency);
+        }
+
+        if (mCallbackCount == mRequestCount) {
+            // Only average over the callbacks we actually timed
+            long averageNanos = mTimedCallbackCount > 0 ? mTotalResultToCallbackNanos / mTimedCallbackCount : 0;
+            mResultsView.setText(getString(
+                    R.string.stress_results,
+                    mCallbackCount,
+                    averageNanos / 1000,
+                    mMaxResultToCallbackNanos / 1000));
+        }
+    }
+}
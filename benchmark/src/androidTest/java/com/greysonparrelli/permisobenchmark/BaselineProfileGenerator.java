@@ -0,0 +1,83 @@
+package com.greysonparrelli.permisobenchmark;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.test.uiautomator.UiDevice;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the demo app's flows and dumps the resulting ART profile rules for Permiso's classes to logcat, ready to be
+ * pasted into {@code permiso/src/main/baseline-prof.txt}.
+ * <p>
+ * Needs an API 33+ emulator running as root ({@code adb root}) so we can force the app to save its profile and read it
+ * back. Run with:
+ * <pre>
+ * ./gradlew :benchmark:connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.greysonparrelli.permisobenchmark.BaselineProfileGenerator
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+
+    private static final String TAG = "PermisoBaselineProfile";
+
+    private static final String PERMISO_PREFIX = "com/greysonparrelli/permiso/";
+
+    private final DemoAppDriver mDriver = new DemoAppDriver();
+    private final UiDevice mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+
+    @Test
+    public void generate() throws Exception {
+        mDriver.reset();
+
+        mDriver.coldStart();
+        runFlow("btn_single");
+        runFlow("btn_multiple");
+        runFlow("btn_duplicate");
+
+        mDriver.click("btn_non_permiso");
+        runFlow("btn_request");
+        mDriver.pressBack();
+
+        mDriver.click("btn_stress");
+        mDriver.click("btn_stress_start");
+        mDriver.denyAllDialogs();
+
+        String profile = dumpProfile();
+        int count = 0;
+        for (String line : profile.split("\n")) {
+            if (line.contains(PERMISO_PREFIX)) {
+                Log.i(TAG, line);
+                count++;
+            }
+        }
+        assertTrue("No Permiso rules were found in the profile. Is the device rooted?", count > 0);
+    }
+
+    private void runFlow(String buttonId) {
+        mDriver.clickAndWaitForDialog(buttonId);
+        mDriver.denyAllDialogs();
+    }
+
+    /**
+     * Forces the app to write out its profile, then dumps it in the human-readable format baseline profiles use.
+     */
+    private String dumpProfile() throws IOException {
+        mDevice.executeShellCommand("killall -s SIGUSR1 " + DemoAppDriver.PACKAGE);
+        // Saving the profile is asynchronous
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mDevice.executeShellCommand("pm dump-profiles --dump-classes-and-methods " + DemoAppDriver.PACKAGE);
+        return mDevice.executeShellCommand("cat /data/misc/profman/" + DemoAppDriver.PACKAGE + "-primary.prof.txt");
+    }
+}
@@ -0,0 +1,60 @@
+package com.greysonparrelli.permisobenchmark;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects samples for a single metric and reports a summary of them. Results show up in the instrumentation output
+ * (run with {@code am instrument -r}, or look at the connectedAndroidTest report) as well as in logcat.
+ */
+class BenchmarkReporter {
+
+    private static final String TAG = "PermisoBenchmark";
+
+    private final String mName;
+    private final List<Long> mSamples = new ArrayList<>();
+
+    BenchmarkReporter(String name) {
+        mName = name;
+    }
+
+    /**
+     * Adds a sample. Negative samples mean that the measurement failed and are ignored.
+     */
+    void add(long sample) {
+        if (sample >= 0) {
+            mSamples.add(sample);
+        }
+    }
+
+    /**
+     * Reports the min, median and max of all of the samples collected so far.
+     */
+    void report() {
+        if (mSamples.isEmpty()) {
+            Log.w(TAG, mName + ": no samples");
+            return;
+        }
+
+        List<Long> sorted = new ArrayList<>(mSamples);
+        Collections.sort(sorted);
+        long min = sorted.get(0);
+        long median = sorted.get(sorted.size() / 2);
+        long max = sorted.get(sorted.size() - 1);
+
+        Bundle results = new Bundle();
+        results.putLong(mName + "_min", min);
+        results.putLong(mName + "_median", median);
+        results.putLong(mName + "_max", max);
+        results.putInt(mName + "_count", sorted.size());
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+
+        Log.i(TAG, mName + ": min=" + min + " median=" + median + " max=" + max + " count=" + sorted.size());
+    }
+}
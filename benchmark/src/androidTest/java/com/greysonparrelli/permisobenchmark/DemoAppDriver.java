@@ -0,0 +1,193 @@
+package com.greysonparrelli.permisobenchmark;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.uiautomator.By;
+import android.support.test.uiautomator.BySelector;
+import android.support.test.uiautomator.UiDevice;
+import android.support.test.uiautomator.UiObject2;
+import android.support.test.uiautomator.Until;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives the demo app from the outside using shell commands and UiAutomator. Everything here works on a plain local
+ * emulator without any network access.
+ */
+class DemoAppDriver {
+
+    static final String PACKAGE = "com.greysonparrelli.permisodemo";
+    static final String MAIN_ACTIVITY = PACKAGE + "/.MainActivity";
+
+    private static final long UI_TIMEOUT_MS = 5000;
+
+    /**
+     * How long we keep looking for another system dialog after dismissing one. Multi-permission requests show one
+     * dialog page per permission group.
+     */
+    private static final long NEXT_DIALOG_TIMEOUT_MS = 1500;
+
+    /**
+     * The deny button of the system permission dialog. The package that owns it has changed across API levels
+     * (packageinstaller, permissioncontroller), but the resource id has not.
+     */
+    private static final BySelector DENY_BUTTON = By.res(Pattern.compile(".*:id/permission_deny_button"));
+
+    private static final Pattern TOTAL_TIME = Pattern.compile("TotalTime: (\\d+)");
+    private static final Pattern TOTAL_FRAMES = Pattern.compile("Total frames rendered: (\\d+)");
+    private static final Pattern JANKY_FRAMES = Pattern.compile("Janky frames: (\\d+)");
+    private static final Pattern P90_FRAME_TIME = Pattern.compile("90th percentile: (\\d+)ms");
+    private static final Pattern RESULT_TO_CALLBACK = Pattern.compile("result_to_callback_us=(\\d+)");
+
+    /**
+     * The logcat tag the demo app logs its result-to-callback timings under.
+     */
+    private static final String DEMO_TAG = "PermisoDemo";
+
+    private final UiDevice mDevice;
+
+    DemoAppDriver() {
+        mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+    }
+
+    /**
+     * Kills the app and wipes its data, which also resets every runtime permission and "Don't Ask Again" flag.
+     */
+    void reset() throws IOException {
+        shell("pm clear " + PACKAGE);
+    }
+
+    /**
+     * Cold-starts {@link #MAIN_ACTIVITY} and waits for it to be fully drawn.
+     * @return The launch time reported by the activity manager, in milliseconds.
+     */
+    long coldStart() throws IOException {
+        shell("am force-stop " + PACKAGE);
+        String output = shell("am start -W -n " + MAIN_ACTIVITY);
+        mDevice.wait(Until.hasObject(By.pkg(PACKAGE).depth(0)), UI_TIMEOUT_MS);
+        return parseLong(TOTAL_TIME, output);
+    }
+
+    /**
+     * Clicks a button in the demo app, then waits for the system permission dialog to appear.
+     * @return The time between the click and the dialog becoming visible, in milliseconds, or -1 if no dialog appeared.
+     */
+    long clickAndWaitForDialog(String buttonId) {
+        UiObject2 button = findById(buttonId);
+        long start = System.nanoTime();
+        button.click();
+        if (!mDevice.wait(Until.hasObject(DENY_BUTTON), UI_TIMEOUT_MS)) {
+            return -1;
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Denies every system permission dialog that shows up until none are left.
+     * @return The number of dialogs that were denied.
+     */
+    int denyAllDialogs() {
+        int count = 0;
+        UiObject2 denyButton;
+        while ((denyButton = mDevice.wait(Until.findObject(DENY_BUTTON), NEXT_DIALOG_TIMEOUT_MS)) != null) {
+            denyButton.click();
+            mDevice.wait(Until.gone(DENY_BUTTON), UI_TIMEOUT_MS);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Clicks a button in the demo app.
+     */
+    void click(String buttonId) {
+        findById(buttonId).click();
+    }
+
+    /**
+     * Waits for a TextView in the demo app to have some text, and returns it.
+     */
+    String waitForText(String viewId, long timeoutMs) {
+        UiObject2 view = findById(viewId);
+        view.wait(Until.textMatches(".+"), timeoutMs);
+        return view.getText();
+    }
+
+    void pressBack() {
+        mDevice.pressBack();
+    }
+
+    /**
+     * Clears the frame statistics the system has collected for the demo app.
+     */
+    void resetFrameStats() throws IOException {
+        shell("dumpsys gfxinfo " + PACKAGE + " reset");
+    }
+
+    /**
+     * @return The frame statistics collected since the last {@link #resetFrameStats()}.
+     */
+    FrameStats readFrameStats() throws IOException {
+        String output = shell("dumpsys gfxinfo " + PACKAGE);
+        return new FrameStats(
+                parseLong(TOTAL_FRAMES, output),
+                parseLong(JANKY_FRAMES, output),
+                parseLong(P90_FRAME_TIME, output));
+    }
+
+    /**
+     * Clears logcat, so that {@link #readResultToCallbackMicros()} only sees what's logged from here on.
+     */
+    void clearLog() throws IOException {
+        shell("logcat -c");
+    }
+
+    /**
+     * @return The time from each system result to each callback waiting on it, in microseconds, as logged by the demo
+     *         app since the last {@link #clearLog()}.
+     */
+    List<Long> readResultToCallbackMicros() throws IOException {
+        String output = shell("logcat -d -s " + DEMO_TAG + ":I");
+        List<Long> samples = new ArrayList<>();
+        Matcher matcher = RESULT_TO_CALLBACK.matcher(output);
+        while (matcher.find()) {
+            samples.add(Long.parseLong(matcher.group(1)));
+        }
+        return samples;
+    }
+
+    static long parseLong(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private UiObject2 findById(String id) {
+        UiObject2 object = mDevice.wait(Until.findObject(By.res(PACKAGE, id)), UI_TIMEOUT_MS);
+        if (object == null) {
+            throw new IllegalStateException("Couldn't find view with id " + id);
+        }
+        return object;
+    }
+
+    private String shell(String command) throws IOException {
+        return mDevice.executeShellCommand(command);
+    }
+
+    /**
+     * Frame timing as reported by {@code dumpsys gfxinfo}.
+     */
+    static class FrameStats {
+        final long totalFrames;
+        final long jankyFrames;
+        final long p90FrameTimeMs;
+
+        FrameStats(long totalFrames, long jankyFrames, long p90FrameTimeMs) {
+            this.totalFrames = totalFrames;
+            this.jankyFrames = jankyFrames;
+            this.p90FrameTimeMs = p90FrameTimeMs;
+        }
+    }
+}
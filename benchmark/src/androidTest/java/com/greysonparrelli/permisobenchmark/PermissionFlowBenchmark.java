@@ -0,0 +1,125 @@
+package com.greysonparrelli.permisobenchmark;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the demo app's permission flows end-to-end. Every iteration starts from a freshly-cleared app so that each
+ * request really goes to the system.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PermissionFlowBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    private static final long STRESS_TIMEOUT_MS = 30000;
+
+    private static final Pattern STRESS_CALLBACKS = Pattern.compile("callbacks=(\\d+)");
+    private static final Pattern STRESS_AVG_LATENCY = Pattern.compile("result_to_callback_avg_us=(\\d+)");
+    private static final Pattern STRESS_MAX_LATENCY = Pattern.compile("result_to_callback_max_us=(\\d+)");
+
+    private final DemoAppDriver mDriver = new DemoAppDriver();
+
+    @Test
+    public void singleRequest() throws Exception {
+        measureFlow("single", "btn_single");
+    }
+
+    @Test
+    public void multipleRequest() throws Exception {
+        measureFlow("multiple", "btn_multiple");
+    }
+
+    @Test
+    public void duplicateRequest() throws Exception {
+        measureFlow("duplicate", "btn_duplicate");
+    }
+
+    @Test
+    public void nonPermisoActivityRequest() throws Exception {
+        BenchmarkReporter toDialog = new BenchmarkReporter("non_permiso_request_to_dialog_ms");
+        BenchmarkReporter toCallback = new BenchmarkReporter("non_permiso_result_to_callback_us");
+        for (int i = 0; i < ITERATIONS; i++) {
+            mDriver.reset();
+            mDriver.coldStart();
+            mDriver.click("btn_non_permiso");
+            mDriver.clearLog();
+            toDialog.add(mDriver.clickAndWaitForDialog("btn_request"));
+            mDriver.denyAllDialogs();
+            addAll(toCallback, mDriver.readResultToCallbackMicros());
+        }
+        toDialog.report();
+        toCallback.report();
+    }
+
+    @Test
+    public void stress() throws Exception {
+        BenchmarkReporter avgLatency = new BenchmarkReporter("stress_result_to_callback_avg_us");
+        BenchmarkReporter maxLatency = new BenchmarkReporter("stress_result_to_callback_max_us");
+        BenchmarkReporter jankyFrames = new BenchmarkReporter("stress_janky_frames");
+        BenchmarkReporter p90FrameTime = new BenchmarkReporter("stress_p90_frame_time_ms");
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            mDriver.reset();
+            mDriver.coldStart();
+            mDriver.click("btn_stress");
+            mDriver.resetFrameStats();
+
+            mDriver.click("btn_stress_start");
+            mDriver.denyAllDialogs();
+            String results = mDriver.waitForText("txt_stress_results", STRESS_TIMEOUT_MS);
+            assertTrue("Not every callback was invoked: " + results, DemoAppDriver.parseLong(STRESS_CALLBACKS, results) > 0);
+
+            DemoAppDriver.FrameStats frameStats = mDriver.readFrameStats();
+            avgLatency.add(DemoAppDriver.parseLong(STRESS_AVG_LATENCY, results));
+            maxLatency.add(DemoAppDriver.parseLong(STRESS_MAX_LATENCY, results));
+            jankyFrames.add(frameStats.jankyFrames);
+            p90FrameTime.add(frameStats.p90FrameTimeMs);
+        }
+
+        avgLatency.report();
+        maxLatency.report();
+        jankyFrames.report();
+        p90FrameTime.report();
+    }
+
+    /**
+     * Runs one of {@code MainActivity}'s flows from a cold start, reporting the time from the button click to the
+     * system dialog, the time from the system result to each callback, and the frame timing for the whole flow.
+     */
+    private void measureFlow(String name, String buttonId) throws Exception {
+        BenchmarkReporter toDialog = new BenchmarkReporter(name + "_request_to_dialog_ms");
+        BenchmarkReporter toCallback = new BenchmarkReporter(name + "_result_to_callback_us");
+        BenchmarkReporter jankyFrames = new BenchmarkReporter(name + "_janky_frames");
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            mDriver.reset();
+            mDriver.coldStart();
+            mDriver.resetFrameStats();
+            mDriver.clearLog();
+
+            toDialog.add(mDriver.clickAndWaitForDialog(buttonId));
+            mDriver.denyAllDialogs();
+
+            addAll(toCallback, mDriver.readResultToCallbackMicros());
+            jankyFrames.add(mDriver.readFrameStats().jankyFrames);
+        }
+
+        toDialog.report();
+        toCallback.report();
+        jankyFrames.report();
+    }
+
+    private static void addAll(BenchmarkReporter reporter, List<Long> samples) {
+        for (long sample : samples) {
+            reporter.add(sample);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.greysonparrelli.permisobenchmark;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the cold-start time of the demo app's {@code MainActivity}, which subclasses {@code PermisoActivity}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    private final DemoAppDriver mDriver = new DemoAppDriver();
+
+    @Test
+    public void coldStart() throws Exception {
+        BenchmarkReporter startup = new BenchmarkReporter("cold_start_ms");
+
+        // The first launch after an install includes one-time costs (dexopt, etc.) that we don't care about
+        mDriver.reset();
+        mDriver.coldStart();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            startup.add(mDriver.coldStart());
+        }
+        startup.report();
+    }
+}
@@ -0,0 +1,112 @@
+package com.greysonparrelli.permiso;
+
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round-trips {@link Permiso.ResultSet} through a real {@link Parcel}, which is only stubbed out in the JVM tests.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResultSetParcelTest {
+
+    @Test
+    public void knownPermissions_roundTrip() {
+        Map<String, Permiso.Result> results = new HashMap<>();
+        results.put("android.permission.CAMERA", Permiso.Result.GRANTED);
+        results.put("android.permission.READ_CONTACTS", Permiso.Result.DENIED);
+        results.put("android.permission.RECORD_AUDIO", Permiso.Result.PERMANENTLY_DENIED);
+
+        assertEquals(results, roundTrip(Permiso.ResultSet.of(results)).toMap());
+    }
+
+    @Test
+    public void customPermissions_roundTripByName() {
+        Map<String, Permiso.Result> results = new HashMap<>();
+        results.put("com.example.permission.FIRST", Permiso.Result.PERMANENTLY_DENIED);
+        results.put("android.permission.CAMERA", Permiso.Result.DENIED);
+        results.put("com.example.permission.SECOND", Permiso.Result.GRANTED);
+        results.put("com.example.permission.THIRD", Permiso.Result.DENIED);
+
+        assertEquals(results, roundTrip(Permiso.ResultSet.of(results)).toMap());
+    }
+
+    @Test
+    public void everyResult_roundTrips() {
+        for (Permiso.Result result : Permiso.Result.values()) {
+            Map<String, Permiso.Result> results = new HashMap<>();
+            results.put("android.permission.CAMERA", result);
+            results.put("com.example.permission.CUSTOM", result);
+
+            assertEquals(results, roundTrip(Permiso.ResultSet.of(results)).toMap());
+        }
+    }
+
+    @Test
+    public void moreResultsThanFitInOneInt_roundTrip() {
+        // 16 results fit in each packed int, so this spills into a second one. Mixes known and custom permissions and
+        // cycles through every result so that each bit position sees each value.
+        Map<String, Permiso.Result> results = new HashMap<>();
+        Permiso.Result[] values = Permiso.Result.values();
+        for (int i = 0; i < 24; i++) {
+            String permission = i % 3 == 0
+                    ? "com.example.permission.CUSTOM_" + i
+                    : PermissionIds.KNOWN_PERMISSIONS[i];
+            results.put(permission, values[i % values.length]);
+        }
+        assertEquals(24, results.size());
+
+        assertEquals(results, roundTrip(Permiso.ResultSet.of(results)).toMap());
+    }
+
+    @Test
+    public void empty_roundTrips() {
+        Permiso.ResultSet copy = roundTrip(Permiso.ResultSet.of(new HashMap<String, Permiso.Result>()));
+
+        assertTrue(copy.toMap().isEmpty());
+        assertTrue(copy.areAllPermissionsGranted());
+    }
+
+    @Test
+    public void followingData_readIntact() {
+        Map<String, Permiso.Result> results = new HashMap<>();
+        results.put("android.permission.CAMERA", Permiso.Result.GRANTED);
+        results.put("com.example.permission.CUSTOM", Permiso.Result.DENIED);
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            Permiso.ResultSet.of(results).writeToParcel(parcel, 0);
+            parcel.writeInt(0xCAFE);
+            parcel.setDataPosition(0);
+
+            assertEquals(results, Permiso.ResultSet.CREATOR.createFromParcel(parcel).toMap());
+            assertEquals(0xCAFE, parcel.readInt());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+
+    // =====================================================================
+    // Helpers
+    // =====================================================================
+
+    private static Permiso.ResultSet roundTrip(Permiso.ResultSet resultSet) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            resultSet.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return Permiso.ResultSet.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
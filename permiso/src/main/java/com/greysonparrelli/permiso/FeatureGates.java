@@ -0,0 +1,103 @@
+package com.greysonparrelli.permiso;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of named features and the permissions each of them needs, along with a single bitmask of which of those
+ * permissions are currently granted. Checking whether a feature is available is a map lookup, a volatile read and a mask
+ * comparison, so it's cheap enough to do every frame.
+ */
+final class FeatureGates {
+
+    /**
+     * The number of distinct permissions that can be used across all features, as each one needs a bit in the mask.
+     */
+    static final int MAX_PERMISSIONS = 64;
+
+    /**
+     * The mask of permissions each feature needs, keyed by feature name.
+     */
+    private final ConcurrentHashMap<String, Long> mFeatureMasks = new ConcurrentHashMap<>();
+
+    /**
+     * The bit assigned to each permission used by a feature.
+     */
+    private final ConcurrentHashMap<String, Integer> mPermissionBits = new ConcurrentHashMap<>();
+
+    /**
+     * Indexed by bit. Replaced (never modified) whenever a new permission is added, so it can be read without locking.
+     */
+    private volatile String[] mPermissions = new String[0];
+
+    /**
+     * The permissions that were granted the last time we saw them.
+     */
+    private final AtomicLong mGrantedMask = new AtomicLong();
+
+    /**
+     * Declares a feature and the permissions it needs. Registering the same feature again replaces its permissions.
+     */
+    synchronized void register(String feature, String... permissions) {
+        long mask = 0;
+        for (String permission : permissions) {
+            mask |= 1L << bitOf(permission);
+        }
+        mFeatureMasks.put(feature, mask);
+    }
+
+    /**
+     * @return True if every permission the feature needs was granted the last time we saw it.
+     */
+    boolean isAvailable(String feature) {
+        Long mask = mFeatureMasks.get(feature);
+        if (mask == null) {
+            throw new IllegalArgumentException("Unknown feature: " + feature + ". Did you forget to register it?");
+        }
+        return (mGrantedMask.get() & mask) == mask;
+    }
+
+    /**
+     * Updates the mask with the latest grant state of a permission. Does nothing if no feature uses the permission.
+     */
+    void onGrantState(String permission, boolean granted) {
+        Integer bit = mPermissionBits.get(permission);
+        if (bit == null) {
+            return;
+        }
+
+        long bitMask = 1L << bit;
+        long current;
+        long updated;
+        do {
+            current = mGrantedMask.get();
+            updated = granted ? current | bitMask : current & ~bitMask;
+        } while (current != updated && !mGrantedMask.compareAndSet(current, updated));
+    }
+
+    /**
+     * @return Every permission used by any feature.
+     */
+    String[] getPermissions() {
+        return mPermissions;
+    }
+
+    private int bitOf(String permission) {
+        Integer existing = mPermissionBits.get(permission);
+        if (existing != null) {
+            return existing;
+        }
+
+        String[] permissions = mPermissions;
+        if (permissions.length == MAX_PERMISSIONS) {
+            throw new IllegalStateException("Features can't use more than " + MAX_PERMISSIONS + " distinct permissions.");
+        }
+        permissions = Arrays.copyOf(permissions, permissions.length + 1);
+        int bit = permissions.length - 1;
+        permissions[bit] = permission;
+        mPermissions = permissions;
+        mPermissionBits.put(permission, bit);
+        return bit;
+    }
+}
@@ -0,0 +1,154 @@
+package com.greysonparrelli.permiso;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size ring buffer of the most recent things Permiso has done, for debugging permission flows after the fact.
+ * Recording is lock-free and never allocates: every event is a handful of primitives written into preallocated atomic
+ * arrays.
+ * Once the buffer is full, the oldest events are overwritten.
+ */
+final class FlightRecorder {
+
+    // Event types. Each event also has a request code, a permission id and one extra int argument, whose meaning depends
+    // on the type.
+
+    /** A permission was asked for. Arg is 1 if it was already granted, otherwise 0. */
+    static final int EVENT_REQUESTED = 1;
+    /** Every permission in a request was already granted, so the callback was invoked right away. */
+    static final int EVENT_ALL_GRANTED = 2;
+    /** A request was linked to the active request with this request code instead of making a new one. */
+    static final int EVENT_LINKED = 3;
+    /** A request was given this request code and marked as active. */
+    static final int EVENT_ACTIVE = 4;
+    /** A rationale was requested for a permission. */
+    static final int EVENT_RATIONALE_REQUESTED = 5;
+    /** The rationale for a request was provided. */
+    static final int EVENT_RATIONALE_PROVIDED = 6;
+    /** A permission was sent to the system to be requested. */
+    static final int EVENT_SYSTEM_REQUEST = 7;
+    /** The system gave us a result for a permission. Arg is the ordinal of the {@link Permiso.Result}. */
+    static final int EVENT_RESULT = 8;
+    /** The system gave us a result for a request code we don't know about. */
+    static final int EVENT_UNKNOWN_REQUEST_CODE = 9;
+    /** A request was answered with the results of an identical request that was recently denied. */
+    static final int EVENT_DEBOUNCED = 10;
+
+    private static final String[] EVENT_NAMES = {
+            null,
+            "REQUESTED",
+            "ALL_GRANTED",
+            "LINKED",
+            "ACTIVE",
+            "RATIONALE_REQUESTED",
+            "RATIONALE_PROVIDED",
+            "SYSTEM_REQUEST",
+            "RESULT",
+            "UNKNOWN_REQUEST_CODE",
+            "DEBOUNCED"
+    };
+
+    private final int mMask;
+
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    /**
+     * For each slot, the sequence number of the event in it plus one. Zero means the slot has never been written, and a
+     * negative value means it's being written right now. Used to detect torn reads when dumping.
+     */
+    private final AtomicLongArray mSequences;
+
+    // The event fields are atomic too. A reader checks the sequence again after reading them, and that check only means
+    // something if the reads can't be reordered past it. Plain reads can be, and we have no fences to stop them on
+    // older API levels, so the fields are read and written as volatiles instead.
+    private final AtomicLongArray mTimestamps;
+    private final AtomicIntegerArray mTypes;
+    private final AtomicIntegerArray mRequestCodes;
+    private final AtomicIntegerArray mPermissionIds;
+    private final AtomicIntegerArray mArgs;
+
+    /**
+     * @param capacity The number of events to keep. Rounded up to a power of two.
+     */
+    FlightRecorder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        mTimestamps = new AtomicLongArray(size);
+        mTypes = new AtomicIntegerArray(size);
+        mRequestCodes = new AtomicIntegerArray(size);
+        mPermissionIds = new AtomicIntegerArray(size);
+        mArgs = new AtomicIntegerArray(size);
+    }
+
+    void record(int type, int requestCode) {
+        record(type, requestCode, PermissionIds.UNKNOWN, 0);
+    }
+
+    void record(int type, int requestCode, String permission, int arg) {
+        record(type, requestCode, PermissionIds.idOf(permission), arg);
+    }
+
+    void record(int type, int requestCode, int permissionId, int arg) {
+        long sequence = mNextSequence.getAndIncrement();
+        int slot = (int) (sequence & mMask);
+
+        mSequences.set(slot, -(sequence + 1));
+        mTimestamps.set(slot, System.nanoTime());
+        mTypes.set(slot, type);
+        mRequestCodes.set(slot, requestCode);
+        mPermissionIds.set(slot, permissionId);
+        mArgs.set(slot, arg);
+        mSequences.set(slot, sequence + 1);
+    }
+
+    /**
+     * Writes every event still in the buffer, oldest first. Timestamps are relative to the time of the dump. Events that
+     * are overwritten while we're reading them are skipped.
+     */
+    void dump(String prefix, PrintWriter writer) {
+        long now = System.nanoTime();
+        long end = mNextSequence.get();
+        long start = Math.max(0, end - mMask - 1);
+
+        writer.print(prefix);
+        writer.println("Permiso events (" + (end - start) + " of " + end + "):");
+
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mMask);
+            long before = mSequences.get(slot);
+
+            long timestamp = mTimestamps.get(slot);
+            int type = mTypes.get(slot);
+            int requestCode = mRequestCodes.get(slot);
+            int permissionId = mPermissionIds.get(slot);
+            int arg = mArgs.get(slot);
+
+            if (before != sequence + 1 || mSequences.get(slot) != before) {
+                continue;
+            }
+
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(String.format("%10.3fms", (timestamp - now) / 1000000d));
+            writer.print(" #");
+            writer.print(requestCode);
+            writer.print(' ');
+            writer.print(type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : String.valueOf(type));
+            if (permissionId != PermissionIds.UNKNOWN) {
+                writer.print(' ');
+                writer.print(PermissionIds.nameOf(permissionId));
+            }
+            if (type == EVENT_RESULT) {
+                writer.print(' ');
+                writer.print(Permiso.Result.values()[arg]);
+            } else if (type == EVENT_REQUESTED && arg == 1) {
+                writer.print(" (already granted)");
+            }
+            writer.println();
+        }
+    }
+}
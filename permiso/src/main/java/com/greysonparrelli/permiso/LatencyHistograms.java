@@ -0,0 +1,68 @@
+package com.greysonparrelli.permiso;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histograms for each {@link Permiso.Phase}. Recording is lock-free and never allocates: it's a
+ * couple of atomic increments on preallocated arrays.
+ * <p>
+ * Buckets are powers of two in microseconds. Bucket 0 holds everything under 1 microsecond, bucket {@code i} holds
+ * {@code [2^(i-1), 2^i)} microseconds, and the last bucket holds everything above that.
+ */
+final class LatencyHistograms {
+
+    static final int BUCKET_COUNT = 32;
+
+    private static final int PHASE_COUNT = Permiso.Phase.values().length;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(PHASE_COUNT * BUCKET_COUNT);
+    private final AtomicLongArray mTotalNanos = new AtomicLongArray(PHASE_COUNT);
+    private final AtomicLongArray mMaxNanos = new AtomicLongArray(PHASE_COUNT);
+
+    void record(Permiso.Phase phase, long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        int index = phase.ordinal();
+        mBuckets.incrementAndGet(index * BUCKET_COUNT + bucketOf(nanos));
+        mTotalNanos.addAndGet(index, nanos);
+
+        long max;
+        do {
+            max = mMaxNanos.get(index);
+        } while (nanos > max && !mMaxNanos.compareAndSet(index, max, nanos));
+    }
+
+    /**
+     * Copies out the current state of every histogram.
+     * @param reset If true, the histograms are cleared as they're read. Every sample ends up in exactly one snapshot.
+     */
+    Permiso.LatencySnapshot snapshot(boolean reset) {
+        long[][] buckets = new long[PHASE_COUNT][BUCKET_COUNT];
+        long[] totalNanos = new long[PHASE_COUNT];
+        long[] maxNanos = new long[PHASE_COUNT];
+
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                int index = phase * BUCKET_COUNT + bucket;
+                buckets[phase][bucket] = reset ? mBuckets.getAndSet(index, 0) : mBuckets.get(index);
+            }
+            totalNanos[phase] = reset ? mTotalNanos.getAndSet(phase, 0) : mTotalNanos.get(phase);
+            maxNanos[phase] = reset ? mMaxNanos.getAndSet(phase, 0) : mMaxNanos.get(phase);
+        }
+        return new Permiso.LatencySnapshot(buckets, totalNanos, maxNanos);
+    }
+
+    /**
+     * @return The exclusive upper bound of a bucket in microseconds, or {@link Long#MAX_VALUE} for the last bucket.
+     */
+    static long upperBoundMicros(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = Long.SIZE - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+}
@@ -2,21 +2,33 @@ package com.greysonparrelli.permiso;
 
 import android.app.Activity;
 import android.app.FragmentManager;
+import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.AnyThread;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 import android.util.Log;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * A class to make permission-management easier. Provides methods to conveniently request permissions anywhere in your
@@ -26,24 +38,102 @@ public class Permiso {
 
     private static final String TAG = "Permiso";
 
+    /**
+     * The number of events kept by the {@link FlightRecorder}.
+     */
+    private static final int EVENT_CAPACITY = 256;
+
+    /**
+     * Never used as a request code, so it can stand for "no request".
+     */
+    private static final int NO_REQUEST_CODE = 0;
+
+    /**
+     * How long we wait for a {@link PermisoTrampolineActivity} we started to show up. Past this, we assume its start was
+     * blocked (newer versions of Android don't let apps start activities from the background), and start it again the
+     * next time a request needs it.
+     */
+    private static final long TRAMPOLINE_TIMEOUT_MS = 5000;
+
     /**
      * A map to keep track of our outstanding permission requests. The key is the request code sent when we call
      * {@link ActivityCompat#requestPermissions(Activity, String[], int)}. The value is the {@link Permiso.RequestData}
      * bundle that holds all of the request information.
+     * <p>
+     * Also used as the lock for itself, {@link #mActiveRequestCode} and the requests linked to each active request.
      */
-    private Map<Integer, RequestData> mCodesToRequests;
+    private final Map<Integer, RequestData> mCodesToRequests;
 
     /**
      * The active activity. Used to make permissions requests. This must be set by the library-user through
      * {@link Permiso#setActivity(Activity)} or else bad things will happen.
      */
-    private WeakReference<Activity> mActivity;
+    private volatile WeakReference<Activity> mActivity;
+
+    /**
+     * False once {@link #mActivity} has been stopped, until it's set again. A stopped activity can still receive the
+     * results of its requests, but new requests made from it would be blocked or held until it's back in the
+     * foreground.
+     */
+    private volatile boolean mActivityStarted;
+
+    /**
+     * The application context, used to start a {@link PermisoTrampolineActivity} when there's no activity to make a
+     * request from.
+     */
+    private volatile Context mApplicationContext;
+
+    /**
+     * The {@link PermisoTrampolineActivity} that's currently running, if any.
+     */
+    private volatile WeakReference<Activity> mTrampoline;
+
+    /**
+     * Requests waiting for a {@link PermisoTrampolineActivity} to start. Also used as the lock for itself and
+     * {@link #mTrampolineStartMillis}.
+     */
+    private final List<Runnable> mTrampolineRequests = new ArrayList<>();
+
+    /**
+     * When we last started a {@link PermisoTrampolineActivity}, according to {@link PermissionBackend#uptimeMillis()}.
+     */
+    private long mTrampolineStartMillis;
 
     /**
      * This is just a value we increment to generate new request codes for use with
      * {@link ActivityCompat#requestPermissions(Activity, String[], int)}.
      */
-    private int mActiveRequestCode = 1;
+    private int mActiveRequestCode = NO_REQUEST_CODE + 1;
+
+    /**
+     * What we use to check and request permissions from the system.
+     */
+    private final PermissionBackend mBackend;
+
+    /**
+     * Which permissions actually need a runtime grant on this device.
+     */
+    private final PermissionCapabilities mCapabilities;
+
+    /**
+     * Keeps track of the most recent requests, rationales and results so they can be dumped when debugging.
+     */
+    private final FlightRecorder mFlightRecorder = new FlightRecorder(EVENT_CAPACITY);
+
+    /**
+     * Remembers recently denied requests so that repeated identical requests can reuse their results.
+     */
+    private final DenialCache mDenialCache;
+
+    /**
+     * The features that have been registered, and which of their permissions are granted.
+     */
+    private final FeatureGates mFeatureGates = new FeatureGates();
+
+    /**
+     * How long each phase of a request takes.
+     */
+    private final LatencyHistograms mLatencies = new LatencyHistograms();
 
     /**
      * The singleton instance.
@@ -66,7 +156,15 @@ public class Permiso {
      * Implementing a singleton pattern, so this is private.
      */
     private Permiso() {
+        this(new SystemPermissionBackend());
+    }
+
+    @VisibleForTesting
+    Permiso(PermissionBackend backend) {
         mCodesToRequests = new HashMap<>();
+        mBackend = backend;
+        mCapabilities = new PermissionCapabilities(backend);
+        mDenialCache = new DenialCache(backend);
     }
 
 
@@ -84,6 +182,30 @@ public class Permiso {
      */
     public void setActivity(@NonNull Activity activity) {
         mActivity = new WeakReference<>(activity);
+        mActivityStarted = true;
+
+        // Permissions may have been granted or revoked in the system settings while we were away
+        refreshFeatures(activity);
+
+        // Anything that was waiting for a trampoline can be requested from here instead
+        if (!mBackend.isFinishing(activity)) {
+            runDeferredRequests();
+        }
+    }
+
+    /**
+     * This method should be invoked in the {@link Activity#onStop()} of every activity that calls
+     * {@link #setActivity(Activity)}. It lets {@link #requestPermissions(Context, IOnPermissionResult, String...)} know
+     * that the activity is no longer in the foreground, so requests made from the background don't go to an activity
+     * that's sitting in the back stack. Results for requests the activity already made are still delivered.
+     * <p>
+     * <strong>Important: </strong> If your activity subclasses {@link PermisoActivity}, this is already handled for you.
+     * @param activity The activity that was stopped. Ignored if it isn't the one that's currently set.
+     */
+    public void onActivityStopped(@NonNull Activity activity) {
+        if (getActivity() == activity) {
+            mActivityStarted = false;
+        }
     }
 
     /**
@@ -97,49 +219,208 @@ public class Permiso {
      */
     @MainThread
     public void requestPermissions(@NonNull IOnPermissionResult callback, String... permissions) {
+        requestPermissions(callback, null, permissions);
+    }
+
+    /**
+     * Request one or more permissions from the system, delivering the result on the provided {@link Executor} instead
+     * of the main thread. Useful if your callback kicks off work that's too heavy to do on the main thread. Results for
+     * merged requests that share an executor are delivered together in a single task.
+     * <p>
+     * {@link IOnPermissionResult#onRationaleRequested(IOnRationaleProvided, String...)} is still invoked on the main
+     * thread, since showing a rationale requires the UI.
+     * @param callback
+     *      A callback that will be triggered when the results of your permission request are available.
+     * @param executor
+     *      The executor that {@link IOnPermissionResult#onPermissionResult(ResultSet)} will be invoked on. If null, the
+     *      result is delivered directly on the main thread.
+     * @param permissions
+     *      A list of permission constants that you are requesting. Use constants from
+     *      {@link android.Manifest.permission}.
+     */
+    @MainThread
+    public void requestPermissions(
+            @NonNull IOnPermissionResult callback,
+            @Nullable Executor executor,
+            String... permissions) {
         Activity activity = checkActivity();
 
-        final RequestData requestData = new RequestData(callback, permissions);
+        // If the exact same request was just denied, hand back those results rather than asking again
+        if (deliverRecentDenial(callback, executor, permissions)) {
+            return;
+        }
+
+        RequestData requestData = new RequestData(callback, executor, permissions);
 
         // Mark any permissions that are already granted
-        for (String permission : permissions) {
-            if (ContextCompat.checkSelfPermission(activity, permission) == PackageManager.PERMISSION_GRANTED) {
-                requestData.resultSet.grantPermissions(permission);
-            }
+        markGrantedPermissions(requestData.resultSet, activity, permissions);
+
+        executeRequest(requestData, activity);
+    }
+
+    /**
+     * Request one or more permissions from anywhere, even where there's no Activity, like a
+     * {@link android.app.Service} or a notification action. If there's an activity set that hasn't been stopped (see
+     * {@link #onActivityStopped(Activity)}), this behaves just like
+     * {@link #requestPermissions(IOnPermissionResult, String...)}. Otherwise, Permiso first checks with the system, and
+     * if every permission is already granted (or was just denied, see {@link #setDenialDebounceWindow(long)}), the
+     * callback is invoked right away. Only if the user actually has to be asked does Permiso start a transparent
+     * {@link PermisoTrampolineActivity} in a new task to make the request from, which finishes itself as soon as the
+     * results are in. Rationales are shown on top of it as usual.
+     * <p>
+     * Keep in mind that newer versions of Android limit when apps can start activities from the background. If the
+     * trampoline doesn't show up, the request waits for the next activity you set with {@link #setActivity(Activity)}.
+     * <p>
+     * This is the only way to make a request without an activity. The other {@code requestPermissions()} methods still
+     * require one to be set.
+     * @param context
+     *      Any context. Only its application context is kept.
+     * @param callback
+     *      A callback that will be triggered when the results of your permission request are available.
+     * @param permissions
+     *      A list of permission constants that you are requesting. Use constants from
+     *      {@link android.Manifest.permission}.
+     */
+    @MainThread
+    public void requestPermissions(
+            @NonNull Context context,
+            @NonNull IOnPermissionResult callback,
+            String... permissions) {
+        if (hasUsableActivity()) {
+            requestPermissions(callback, permissions);
+            return;
         }
+        Context applicationContext = mBackend.getApplicationContext(context);
+        mApplicationContext = applicationContext;
 
-        // If we had all of them, yay! No need to do anything else.
+        if (deliverRecentDenial(callback, null, permissions)) {
+            return;
+        }
+
+        // Only bring up the trampoline if the user actually has to be asked
+        final RequestData requestData = new RequestData(callback, null, permissions);
+        markGrantedPermissions(requestData.resultSet, applicationContext, permissions);
         if (requestData.resultSet.areAllPermissionsGranted()) {
-            requestData.onResultListener.onPermissionResult(requestData.resultSet);
-        } else {
-            // If we have some unsatisfied ones, let's first see if they can be satisfied by an active request. If it
-            // can, we'll re-wire the callback of the active request to also trigger this new one.
-            boolean linkedToExisting = linkToExistingRequestIfPossible(requestData);
-
-            // If there was no existing request that can satisfy this one, then let's make a new permission request to
-            // the system
-            if (!linkedToExisting) {
-                // Mark the request as active
-                final int requestCode = markRequestAsActive(requestData);
-
-                // First check if there's any permissions for which we need to provide a rationale for using
-                String[] permissionsThatNeedRationale = requestData.resultSet.getPermissionsThatNeedRationale(activity);
-
-                // If there are some that need a rationale, show that rationale, then continue with the request
-                if (permissionsThatNeedRationale.length > 0) {
-                    requestData.onResultListener.onRationaleRequested(new IOnRationaleProvided() {
-                        @Override
-                        public void onRationaleProvided() {
-                            makePermissionRequest(requestCode, requestData);
-                        }
-                    }, permissionsThatNeedRationale);
-                } else {
-                    makePermissionRequest(requestCode, requestData);
-                }
+            mFlightRecorder.record(FlightRecorder.EVENT_ALL_GRANTED, 0);
+            deliverResults(requestData);
+            return;
+        }
+
+        deferToTrampoline(new Runnable() {
+            @Override
+            public void run() {
+                executeRequest(requestData, checkActivity());
             }
+        });
+    }
+
+    /**
+     * Request permissions in stages, where each stage is only requested once the previous ones are finished. Use this
+     * when some permissions can only be requested after others have been granted (like background location after
+     * foreground location), or when you want to ask for permissions progressively.
+     * <p>
+     * Every permission is checked with the system once, up front, and those results are reused by every stage. A stage
+     * whose prerequisites were denied is skipped, and its permissions are reported as denied. Consecutive stages that
+     * don't depend on each other are requested together, so the system is asked as few times as possible.
+     * @param callback
+     *      A callback that will be triggered once every stage is finished, with the results of every stage's
+     *      permissions. Rationales for each stage are requested from this callback as well.
+     * @param stages
+     *      The stages to request, in order.
+     * @throws IllegalArgumentException If a stage's prerequisite is only requested in that stage or a later one.
+     */
+    @MainThread
+    public void requestPermissionsInStages(@NonNull IOnPermissionResult callback, Stage... stages) {
+        checkPrerequisites(stages);
+        Activity activity = checkActivity();
+        new StagedRequest(callback, stages).start(activity);
+    }
+
+    /**
+     * Checks the current grant state of one or more permissions without making a request. Unlike the rest of Permiso,
+     * this does not need an activity to be set, so it's safe to call from a {@link android.app.Service} or a background
+     * thread.
+     * <p>
+     * Without an activity, the system can't tell us whether the user selected "Don't Ask Again", so any permission that
+     * isn't granted will be reported as {@link Result#DENIED}.
+     * @param context
+     *      Any context. Only used to check permissions, so no reference to it is kept.
+     * @param permissions
+     *      A list of permission constants that you are checking. Use constants from
+     *      {@link android.Manifest.permission}.
+     * @return A {@link ResultSet} holding the current state of each permission.
+     */
+    @AnyThread
+    public ResultSet checkPermissions(@NonNull Context context, String... permissions) {
+        ResultSet resultSet = new ResultSet(permissions);
+        long start = System.nanoTime();
+        resultSet.grantPermissions(mBackend, mCapabilities, context, permissions);
+        mLatencies.record(Phase.GRANT_CHECK, System.nanoTime() - start);
+        for (String permission : permissions) {
+            onGrantStateObserved(permission, resultSet.isPermissionGranted(permission));
+        }
+        return resultSet;
+    }
+
+    /**
+     * Declares a feature of your app and the permissions it needs, so that you can cheaply check whether it's usable
+     * with {@link #isFeatureAvailable(String)}. Registering the same feature again replaces its permissions. Across all
+     * features, at most 64 distinct permissions can be used.
+     * <p>
+     * Permiso keeps track of the features' permissions as it sees them: through requests, results,
+     * {@link #checkPermissions(Context, String...)}, and every time {@link #setActivity(Activity)} is called (which
+     * happens in {@link Activity#onResume()}). To get an up-to-date state right away, call
+     * {@link #refreshFeatures(Context)}.
+     * @param feature
+     *      A name for the feature.
+     * @param permissions
+     *      The permissions the feature needs. Use constants from {@link android.Manifest.permission}.
+     */
+    @AnyThread
+    public void registerFeature(@NonNull String feature, String... permissions) {
+        mFeatureGates.register(feature, permissions);
+    }
+
+    /**
+     * Checks whether every permission needed by a feature is granted, as of the last time Permiso saw them. This never
+     * talks to the system, so it's cheap enough to call every frame.
+     * @param feature
+     *      The name of a feature given to {@link #registerFeature(String, String...)}.
+     * @return True if all of the feature's permissions are granted, otherwise false.
+     */
+    @AnyThread
+    public boolean isFeatureAvailable(@NonNull String feature) {
+        return mFeatureGates.isAvailable(feature);
+    }
+
+    /**
+     * Checks the current state of every permission used by a registered feature. Called for you by
+     * {@link #setActivity(Activity)}.
+     * @param context
+     *      Any context. Only used to check permissions, so no reference to it is kept.
+     */
+    @AnyThread
+    public void refreshFeatures(@NonNull Context context) {
+        String[] permissions = mFeatureGates.getPermissions();
+        if (permissions.length > 0) {
+            checkPermissions(context, permissions);
         }
     }
 
+    /**
+     * Sets how long the results of a denied request are reused for. If an identical request (one for the same set of
+     * permissions) is made within this window, it immediately receives the denied results without checking with the
+     * system or showing any UI. This keeps things cheap when users repeatedly tap a button after denying a permission.
+     * <p>
+     * The window is reset as soon as Permiso sees that one of the denied permissions has been granted.
+     * @param windowMillis
+     *      How long to reuse denied results for, in milliseconds. Zero (the default) turns this off.
+     */
+    @AnyThread
+    public void setDenialDebounceWindow(long windowMillis) {
+        mDenialCache.setWindow(windowMillis);
+    }
+
     /**
      * This method needs to be called by your activity's {@link Activity#onRequestPermissionsResult(int, String[], int[])}.
      * Simply forward the results of that method here.
@@ -155,12 +436,31 @@ public class Permiso {
     @MainThread
     public void onRequestPermissionResult(int requestCode, String[] permissions, int[] grantResults) {
         Activity activity = checkActivity();
-        if (mCodesToRequests.containsKey(requestCode)) {
-            RequestData requestData = mCodesToRequests.get(requestCode);
-            requestData.resultSet.parsePermissionResults(permissions, grantResults, activity);
-            requestData.onResultListener.onPermissionResult(requestData.resultSet);
-            mCodesToRequests.remove(requestCode);
+        RequestData requestData;
+        synchronized (mCodesToRequests) {
+            requestData = mCodesToRequests.remove(requestCode);
+        }
+        if (requestData != null) {
+            mLatencies.record(Phase.SYSTEM_DIALOG, System.nanoTime() - requestData.systemRequestNanos);
+            requestData.resultSet.parsePermissionResults(mBackend, permissions, grantResults, activity);
+            for (String permission : permissions) {
+                Result result = requestData.resultSet.requestResults.get(permission);
+                mFlightRecorder.record(FlightRecorder.EVENT_RESULT, requestCode, permission, result.ordinal());
+                onGrantStateObserved(permission, result == Result.GRANTED);
+            }
+
+            List<RequestData> requests = collectResults(requestData);
+            // A cancelled request comes back with no results at all. The user wasn't asked, so don't remember it as a
+            // denial
+            if (permissions.length > 0) {
+                for (RequestData request : requests) {
+                    mDenialCache.put(request.resultSet);
+                }
+            }
+            dispatchResults(requests);
+            finishTrampolineIfIdle();
         } else {
+            mFlightRecorder.record(FlightRecorder.EVENT_UNKNOWN_REQUEST_CODE, requestCode);
             Log.w(TAG, "onRequestPermissionResult() was given an unrecognized request code.");
         }
     }
@@ -225,195 +525,947 @@ public class Permiso {
         dialogFragment.show(fm, PermisoDialogFragment.TAG);
     }
 
-    // =====================================================================
-    // Private
-    // =====================================================================
-
     /**
-     * Checks to see if there are any active requests that are already requesting a superset of the permissions this
-     * new request is asking for. If so, this will wire up this new request's callback to be triggered when the
-     * existing request is completed and return true. Otherwise, this does nothing and returns false.
-     * @param newRequest The new request that is about to be made.
-     * @return True if a request was linked, otherwise false.
+     * Writes out the most recent permission events (requests, merged requests, rationales, system requests and results)
+     * along with how long ago they happened. Useful for figuring out why a permission dialog never appeared.
+     * {@link PermisoActivity} includes this in {@link Activity#dump(String, java.io.FileDescriptor, PrintWriter, String[])},
+     * so you can see it with {@code adb shell dumpsys activity}. You can also attach it to your crash reports.
+     * @param prefix
+     *      A prefix to put in front of every line.
+     * @param writer
+     *      The writer to write the events to.
      */
-    private boolean linkToExistingRequestIfPossible(final RequestData newRequest) {
-        boolean found = false;
-
-        // Go through all outstanding requests
-        for (final RequestData activeRequest : mCodesToRequests.values()) {
-            // If we find one that can satisfy all of the new request's permissions, we re-wire the active one's
-            // callback to also call this new one's callback
-            if (activeRequest.resultSet.containsAllUngrantedPermissions(newRequest.resultSet)) {
-                final IOnPermissionResult originalOnResultListener = activeRequest.onResultListener;
-                activeRequest.onResultListener = new IOnPermissionResult() {
-                    @Override
-                    public void onPermissionResult(ResultSet resultSet) {
-                        // First, call the active one's callback. It was added before this new one.
-                        originalOnResultListener.onPermissionResult(resultSet);
-
-                        // Next, copy over the results to the new one's resultSet
-                        String[] unsatisfied = newRequest.resultSet.getUngrantedPermissions();
-                        for (String permission : unsatisfied) {
-                            newRequest.resultSet.requestResults.put(permission, resultSet.requestResults.get(permission));
-                        }
-
-                        // Finally, trigger the new one's callback
-                        newRequest.onResultListener.onPermissionResult(newRequest.resultSet);
-                    }
-
-                    @Override
-                    public void onRationaleRequested(IOnRationaleProvided callback, String... permissions) {
-                        activeRequest.onResultListener.onRationaleRequested(callback, permissions);
-                    }
-                };
-                found = true;
-                break;
-            }
-        }
-        return found;
+    @AnyThread
+    public void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        mFlightRecorder.dump(prefix, writer);
     }
 
     /**
-     * Puts the RequestData in the map of requests and gives back the request code.
-     * @return The request code generated for this request.
+     * Gives you the latency histograms Permiso keeps for each {@link Phase} of a request. These are always on and cost
+     * next to nothing, so you can take a snapshot periodically (and write it to a file with
+     * {@link LatencySnapshot#writeTo(PrintWriter)}) to keep an eye on how your permission flows perform.
+     * @param reset
+     *      If true, the histograms are cleared once they're read, so the next snapshot only has what happened after
+     *      this one.
+     * @return A snapshot of the histograms.
      */
-    private int markRequestAsActive(RequestData requestData) {
-        int requestCode = mActiveRequestCode++;
-        mCodesToRequests.put(requestCode, requestData);
-        return requestCode;
+    @AnyThread
+    public LatencySnapshot getLatencySnapshot(boolean reset) {
+        return mLatencies.snapshot(reset);
     }
 
     /**
-     * Makes the permission request for the request that matches the provided request code.
-     * @param requestCode The request code of the request you want to run.
-     * @param requestData The {@link RequestData} representing the request you want to run.
+     * Works out what {@link #requestPermissions(IOnPermissionResult, String...)} would do with these permissions right
+     * now, without doing any of it: no request is made, no UI is shown and nothing Permiso remembers is changed. The
+     * plan says which permissions are already granted, whether the request would be answered by a recent denial or
+     * merged into an active request, which permissions need a rationale, and how many system calls, rationale prompts
+     * and system dialogs to expect. Useful for profiling a new flow before shipping it, and for tests.
+     * <p>
+     * Checking which permissions are granted still asks the system, just like a real request would.
+     * @param permissions
+     *      A list of permission constants that you would request. Use constants from
+     *      {@link android.Manifest.permission}.
+     * @return The plan.
      */
-    private void makePermissionRequest(int requestCode, RequestData requestData) {
+    @MainThread
+    public RequestPlan plan(String... permissions) {
         Activity activity = checkActivity();
-        ActivityCompat.requestPermissions(activity, requestData.resultSet.getUngrantedPermissions(), requestCode);
+        return planRequest(activity, activity, permissions);
     }
 
     /**
-     * Ensures that our WeakReference to the Activity is still valid. If it isn't, throw an exception saying that the
-     * Activity needs to be set.
+     * Works out what {@link #requestPermissions(Context, IOnPermissionResult, String...)} would do with these
+     * permissions right now, without doing any of it. See {@link #plan(String...)}.
+     * @param context
+     *      Any context. No reference to it is kept.
+     * @param permissions
+     *      A list of permission constants that you would request. Use constants from
+     *      {@link android.Manifest.permission}.
+     * @return The plan.
      */
-    private Activity checkActivity() {
-        Activity activity = mActivity.get();
-        if (activity == null) {
-            throw new IllegalStateException("No activity set. Either subclass PermisoActivity or call Permiso.setActivity() in onCreate() and onResume() of your Activity.");
+    @MainThread
+    public RequestPlan plan(@NonNull Context context, String... permissions) {
+        if (hasUsableActivity()) {
+            return plan(permissions);
         }
-        return activity;
+        return planRequest(null, mBackend.getApplicationContext(context), permissions);
     }
 
-
     // =====================================================================
-    // Inner Classes
+    // Package-Private
     // =====================================================================
 
     /**
-     * A callback interface for receiving the results of a permission request.
+     * Called by a {@link PermisoTrampolineActivity} once it's created. Makes every request that was waiting for it, and
+     * finishes it right away if none of them need the system.
      */
-    public interface IOnPermissionResult {
-        /**
-         * Invoked when the results of your permission request are ready.
-         * @param resultSet An object holding the result of your permission request.
-         */
-        void onPermissionResult(ResultSet resultSet);
+    @MainThread
+    void onTrampolineCreated(PermisoTrampolineActivity trampoline) {
+        Activity running = getTrampoline();
+        if (running != null && running != trampoline && !mBackend.isFinishing(running)) {
+            // We started another one after a timeout, but the first one made it after all and is doing the work
+            trampoline.finish();
+            return;
+        }
 
-        /**
-         * Called when the system recommends that you provide a rationale for a permission. This typically happens when
-         * a user denies a permission, but they you request it again.
-         * @param callback    A callback to be triggered when you are finished showing the user the rationale.
-         * @param permissions The list of permissions for which the system recommends you provide a rationale.
-         */
-        void onRationaleRequested(IOnRationaleProvided callback, String... permissions);
+        mTrampoline = new WeakReference<Activity>(trampoline);
+        setActivity(trampoline);
+        finishTrampolineIfIdle();
     }
 
+
+    // =====================================================================
+    // Private
+    // =====================================================================
+
     /**
-     * Simple callback to let Permiso know that you have finished providing the user a rationale for a set of permissions.
-     * For easy handling of this callback, consider using
-     * {@link Permiso#showRationaleInDialog(String, String, String, IOnRationaleProvided)}.
+     * @return True if there's an activity set that we can make a request from right away: it's in the foreground and
+     *         isn't finishing.
      */
-    public interface IOnRationaleProvided {
-        /**
-         * Invoke this method when you are done providing a rationale to the user in
-         * {@link IOnPermissionResult#onRationaleRequested(IOnRationaleProvided, String...)}. The permission request
-         * will not be made until this method is invoked.
-         */
-        void onRationaleProvided();
+    private boolean hasUsableActivity() {
+        Activity activity = getActivity();
+        return activity != null && mActivityStarted && !mBackend.isFinishing(activity);
     }
 
-    private static class RequestData {
-        IOnPermissionResult onResultListener;
-        ResultSet resultSet;
-
-        public RequestData(@NonNull IOnPermissionResult onResultListener, String... permissions) {
-            this.onResultListener = onResultListener;
-            resultSet = new ResultSet(permissions);
+    /**
+     * If the exact same request was just denied, hands those results to the callback.
+     * @return True if the results were handed back, so there's nothing left to do.
+     */
+    private boolean deliverRecentDenial(IOnPermissionResult callback, @Nullable Executor executor, String... permissions) {
+        ResultSet recentDenial = mDenialCache.get(permissions);
+        if (recentDenial == null) {
+            return false;
         }
+        mFlightRecorder.record(FlightRecorder.EVENT_DEBOUNCED, 0);
+        deliverResults(new RequestData(callback, executor, recentDenial));
+        return true;
     }
 
     /**
-     * A class representing the results of a permission request.
+     * Does the work of {@link #plan(String...)} and {@link #plan(Context, String...)}.
+     * @param activity The activity the request would be made from, or null if it would need a trampoline.
+     * @param context  The context to check permissions against.
      */
-    public static class ResultSet {
-
-        private Map<String, Result> requestResults;
+    private RequestPlan planRequest(@Nullable Activity activity, Context context, String... permissions) {
+        // A recent identical denial is handed back before anything else happens
+        if (mDenialCache.peek(permissions) != null) {
+            return new RequestPlan(permissions, new String[0], new String[0], true, NO_REQUEST_CODE, new String[0],
+                    false, 0, 0, 0);
+        }
 
-        private ResultSet(String... permissions) {
-            requestResults = new HashMap<>(permissions.length);
-            for (String permission : permissions) {
-                requestResults.put(permission, Result.DENIED);
+        int grantChecks = 0;
+        for (String permission : permissions) {
+            if (mCapabilities.needsRuntimeGrant(context, permission)) {
+                grantChecks++;
             }
         }
+        ResultSet resultSet = new ResultSet(permissions);
+        resultSet.grantPermissions(mBackend, mCapabilities, context, permissions);
 
-        /**
-         * Checks if a permission was granted during your permission request.
-         * @param permission The permission you are inquiring about. This should be a constant from {@link android.Manifest.permission}.
-         * @return True if the permission was granted, otherwise false.
-         */
-        public boolean isPermissionGranted(String permission) {
-            return requestResults.containsKey(permission) && requestResults.get(permission) == Result.GRANTED;
+        List<String> granted = new ArrayList<>(permissions.length);
+        for (String permission : permissions) {
+            if (resultSet.isPermissionGranted(permission)) {
+                granted.add(permission);
+            }
         }
+        String[] alreadyGranted = granted.toArray(new String[granted.size()]);
+        String[] ungranted = resultSet.getUngrantedPermissions();
 
-        /**
-         * Determines if all permissions in the request were granted.
-         * @return True if all permissions in the request were granted, otherwise false.
-         */
-        public boolean areAllPermissionsGranted() {
-            return !requestResults.containsValue(Result.DENIED) && !requestResults.containsValue(Result.PERMANENTLY_DENIED);
+        if (ungranted.length == 0) {
+            return new RequestPlan(permissions, alreadyGranted, ungranted, false, NO_REQUEST_CODE, new String[0],
+                    false, grantChecks, 0, 0);
         }
 
-        /**
-         * Checks if a permission was permanently denied by the user (i.e. they denied and selected "Dont Ask Again".)
-         * @param permission The permission you are inquiring about. This should be a constant from {@link android.Manifest.permission}.
-         * @return True if the permission was permanently denied, otherwise false.
-         */
-        public boolean isPermissionPermanentlyDenied(String permission) {
-            return requestResults.containsKey(permission) && requestResults.get(permission) == Result.PERMANENTLY_DENIED;
+        // Without an activity, the user can only be asked from a trampoline
+        boolean usesTrampoline = activity == null;
+        int linkedRequestCode;
+        synchronized (mCodesToRequests) {
+            linkedRequestCode = findRequestToLinkTo(resultSet);
         }
-
-        /**
-         * Returns a map representation of this result set. Useful if you'd like to do more complicated operations
-         * with the results.
-         * @return
-         *      A mapping of permission constants to {@link Result}.
-         */
-        public Map<String, Result> toMap() {
-            return new HashMap<>(requestResults);
+        if (linkedRequestCode != NO_REQUEST_CODE) {
+            return new RequestPlan(permissions, alreadyGranted, ungranted, false, linkedRequestCode, new String[0],
+                    usesTrampoline, grantChecks, 0, 0);
         }
 
-        private void grantPermissions(String... permissions) {
-            for (String permission : permissions) {
-                requestResults.put(permission, Result.GRANTED);
-            }
+        // Without an activity, we can't ask the system about rationales until the trampoline has started
+        String[] rationalePermissions = activity != null
+                ? resultSet.getPermissionsThatNeedRationale(mBackend, activity)
+                : new String[0];
+        return new RequestPlan(permissions, alreadyGranted, ungranted, false, NO_REQUEST_CODE, rationalePermissions,
+                usesTrampoline, grantChecks, ungranted.length, 1);
+    }
+
+    /**
+     * Queues a request to be made once a {@link PermisoTrampolineActivity} has started, starting one if needed.
+     * @param request Makes the request. Run on the main thread once the trampoline is the current activity.
+     */
+    private void deferToTrampoline(Runnable request) {
+        long now = mBackend.uptimeMillis();
+        boolean startTrampoline;
+        synchronized (mTrampolineRequests) {
+            // If there are requests waiting already, a trampoline is on its way, unless it's been so long that it was
+            // most likely blocked
+            startTrampoline = mTrampolineRequests.isEmpty() || now - mTrampolineStartMillis > TRAMPOLINE_TIMEOUT_MS;
+            if (startTrampoline) {
+                mTrampolineStartMillis = now;
+            }
+            mTrampolineRequests.add(request);
+        }
+        if (startTrampoline) {
+            try {
+                mBackend.startTrampoline(mApplicationContext);
+            } catch (RuntimeException e) {
+                // The request stays queued, to be retried or made from the next activity that's set
+                Log.w(TAG, "Couldn't start the trampoline activity.", e);
+            }
+        }
+    }
+
+    /**
+     * Makes every request that was waiting for a {@link PermisoTrampolineActivity}, from the current activity.
+     */
+    private void runDeferredRequests() {
+        List<Runnable> requests;
+        synchronized (mTrampolineRequests) {
+            if (mTrampolineRequests.isEmpty()) {
+                return;
+            }
+            requests = new ArrayList<>(mTrampolineRequests);
+            mTrampolineRequests.clear();
+        }
+        for (Runnable request : requests) {
+            request.run();
+        }
+    }
+
+    /**
+     * @return The {@link PermisoTrampolineActivity} that's currently running, or null if there isn't one.
+     */
+    @Nullable
+    private Activity getTrampoline() {
+        WeakReference<Activity> trampolineRef = mTrampoline;
+        return trampolineRef != null ? trampolineRef.get() : null;
+    }
+
+    /**
+     * Finishes the running {@link PermisoTrampolineActivity}, if there is one and no requests are active anymore.
+     */
+    private void finishTrampolineIfIdle() {
+        Activity trampoline = getTrampoline();
+        if (trampoline == null) {
+            return;
+        }
+        synchronized (mCodesToRequests) {
+            if (!mCodesToRequests.isEmpty()) {
+                return;
+            }
+        }
+        mTrampoline = null;
+        trampoline.finish();
+    }
+
+    /**
+     * Everything that happens in {@link #requestPermissions(IOnPermissionResult, Executor, String...)} after we've
+     * checked which permissions are already granted.
+     * @param requestData The request to make.
+     * @param activity    The current activity.
+     */
+    private void executeRequest(final RequestData requestData, Activity activity) {
+        // If we had all of them, yay! No need to do anything else.
+        if (requestData.resultSet.areAllPermissionsGranted()) {
+            mFlightRecorder.record(FlightRecorder.EVENT_ALL_GRANTED, 0);
+            deliverResults(requestData);
+            return;
+        }
+
+        // If we have some unsatisfied ones, let's first see if they can be satisfied by an active request. If it can,
+        // we'll link this new one to the active request so it gets the same results. Otherwise, we mark it as active.
+        // Both happen under the same lock so that simultaneous requests for the same permissions can't both go through.
+        final int requestCode;
+        long start = System.nanoTime();
+        synchronized (mCodesToRequests) {
+            boolean linked = linkToExistingRequestIfPossible(requestData);
+            mLatencies.record(Phase.DEDUP_LOOKUP, System.nanoTime() - start);
+            if (linked) {
+                return;
+            }
+            requestCode = markRequestAsActive(requestData);
+        }
+
+        // There was no existing request that can satisfy this one, so let's make a new permission request to the
+        // system. First check if there's any permissions for which we need to provide a rationale for using.
+        String[] permissionsThatNeedRationale = requestData.resultSet.getPermissionsThatNeedRationale(mBackend, activity);
+
+        // If there are some that need a rationale, show that rationale, then continue with the request
+        if (permissionsThatNeedRationale.length > 0) {
+            for (String permission : permissionsThatNeedRationale) {
+                mFlightRecorder.record(FlightRecorder.EVENT_RATIONALE_REQUESTED, requestCode, permission, 0);
+            }
+            final long rationaleStart = System.nanoTime();
+            requestData.onResultListener.onRationaleRequested(new IOnRationaleProvided() {
+                @Override
+                public void onRationaleProvided() {
+                    mLatencies.record(Phase.RATIONALE_DWELL, System.nanoTime() - rationaleStart);
+                    mFlightRecorder.record(FlightRecorder.EVENT_RATIONALE_PROVIDED, requestCode);
+                    makePermissionRequest(requestCode, requestData);
+                }
+            }, permissionsThatNeedRationale);
+        } else {
+            makePermissionRequest(requestCode, requestData);
+        }
+    }
+
+    /**
+     * Marks every permission that's already granted in a result set that's about to be requested, and records what we
+     * saw.
+     */
+    private void markGrantedPermissions(ResultSet resultSet, Context context, String... permissions) {
+        long start = System.nanoTime();
+        resultSet.grantPermissions(mBackend, mCapabilities, context, permissions);
+        mLatencies.record(Phase.GRANT_CHECK, System.nanoTime() - start);
+        for (String permission : permissions) {
+            boolean granted = resultSet.isPermissionGranted(permission);
+            mFlightRecorder.record(FlightRecorder.EVENT_REQUESTED, 0, permission, granted ? 1 : 0);
+            onGrantStateObserved(permission, granted);
+        }
+    }
+
+    /**
+     * Lets everything that depends on the grant state of a permission know what we've just seen it to be.
+     */
+    private void onGrantStateObserved(String permission, boolean granted) {
+        if (granted) {
+            mDenialCache.onPermissionGranted(permission);
+        }
+        mFeatureGates.onGrantState(permission, granted);
+    }
+
+    /**
+     * Checks to see if there are any active requests that are already requesting a superset of the permissions this
+     * new request is asking for. If so, this will link the new request to the existing one so that it gets its results
+     * when the existing request is completed and return true. Otherwise, this does nothing and returns false. Must be
+     * called while holding the {@link #mCodesToRequests} lock.
+     * @param newRequest The new request that is about to be made.
+     * @return True if a request was linked, otherwise false.
+     */
+    private boolean linkToExistingRequestIfPossible(final RequestData newRequest) {
+        int requestCode = findRequestToLinkTo(newRequest.resultSet);
+        if (requestCode == NO_REQUEST_CODE) {
+            return false;
         }
 
-        private void parsePermissionResults(String[] permissions, int[] grantResults, Activity activity) {
+        // We found one that can satisfy all of the new request's permissions, so we link the new one to it so that it
+        // gets the active one's results
+        mFlightRecorder.record(FlightRecorder.EVENT_LINKED, requestCode);
+        mCodesToRequests.get(requestCode).linkedRequests.add(newRequest);
+        return true;
+    }
+
+    /**
+     * Looks for an active request that's already requesting every ungranted permission in a result set. Must be called
+     * while holding the {@link #mCodesToRequests} lock.
+     * @return The request code of the active request, or {@link #NO_REQUEST_CODE} if there isn't one.
+     */
+    private int findRequestToLinkTo(ResultSet resultSet) {
+        // Go through all outstanding requests
+        for (Map.Entry<Integer, RequestData> activeEntry : mCodesToRequests.entrySet()) {
+            if (activeEntry.getValue().resultSet.containsAllUngrantedPermissions(resultSet)) {
+                return activeEntry.getKey();
+            }
+        }
+        return NO_REQUEST_CODE;
+    }
+
+    /**
+     * Hands a finished request's results to its callback, as well as to the callbacks of every request that was linked
+     * to it.
+     * @param requestData The request that has finished.
+     */
+    private void deliverResults(RequestData requestData) {
+        dispatchResults(collectResults(requestData));
+    }
+
+    /**
+     * Fills in the results of every request that was linked to a finished request.
+     * @param requestData The request that has finished.
+     * @return The finished request, followed by all of the requests that were linked to it.
+     */
+    private List<RequestData> collectResults(RequestData requestData) {
+        List<RequestData> requests = new ArrayList<>(1 + requestData.linkedRequests.size());
+        requests.add(requestData);
+        for (RequestData linkedRequest : requestData.linkedRequests) {
+            linkedRequest.resultSet.copyUngrantedResults(requestData.resultSet);
+            requests.add(linkedRequest);
+        }
+        return requests;
+    }
+
+    /**
+     * Invokes the callbacks of finished requests. Callbacks without an executor are invoked right away, in the order
+     * they were requested. The rest are batched so that each executor only receives a single task.
+     * @param requests The finished requests.
+     */
+    private void dispatchResults(List<RequestData> requests) {
+        long start = System.nanoTime();
+        Map<Executor, List<RequestData>> requestsByExecutor = null;
+        for (RequestData request : requests) {
+            if (request.executor == null) {
+                request.onResultListener.onPermissionResult(request.resultSet);
+                continue;
+            }
+
+            if (requestsByExecutor == null) {
+                requestsByExecutor = new LinkedHashMap<>();
+            }
+            List<RequestData> batch = requestsByExecutor.get(request.executor);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                requestsByExecutor.put(request.executor, batch);
+            }
+            batch.add(request);
+        }
+
+        if (requestsByExecutor != null) {
+            for (Map.Entry<Executor, List<RequestData>> entry : requestsByExecutor.entrySet()) {
+                final List<RequestData> batch = entry.getValue();
+                entry.getKey().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (RequestData request : batch) {
+                            request.onResultListener.onPermissionResult(request.resultSet);
+                        }
+                    }
+                });
+            }
+        }
+        mLatencies.record(Phase.CALLBACK_DISPATCH, System.nanoTime() - start);
+    }
+
+    /**
+     * Puts the RequestData in the map of requests and gives back the request code. Must be called while holding the
+     * {@link #mCodesToRequests} lock.
+     * @return The request code generated for this request.
+     */
+    private int markRequestAsActive(RequestData requestData) {
+        int requestCode = mActiveRequestCode++;
+        mCodesToRequests.put(requestCode, requestData);
+        mFlightRecorder.record(FlightRecorder.EVENT_ACTIVE, requestCode);
+        return requestCode;
+    }
+
+    /**
+     * Makes the permission request for the request that matches the provided request code.
+     * @param requestCode The request code of the request you want to run.
+     * @param requestData The {@link RequestData} representing the request you want to run.
+     */
+    private void makePermissionRequest(int requestCode, RequestData requestData) {
+        Activity activity = checkActivity();
+        String[] ungranted = requestData.resultSet.getUngrantedPermissions();
+        for (String permission : ungranted) {
+            mFlightRecorder.record(FlightRecorder.EVENT_SYSTEM_REQUEST, requestCode, permission, 0);
+        }
+        requestData.systemRequestNanos = System.nanoTime();
+        mBackend.requestPermissions(activity, ungranted, requestCode);
+    }
+
+    /**
+     * @return The current activity, or null if none was set or it's been garbage collected.
+     */
+    @Nullable
+    private Activity getActivity() {
+        WeakReference<Activity> activityRef = mActivity;
+        return activityRef != null ? activityRef.get() : null;
+    }
+
+    /**
+     * Makes sure every stage's prerequisites are either requested in an earlier stage or not requested at all (and so
+     * expected to be granted already). A prerequisite requested in its own stage or a later one could never be granted
+     * in time, so its stage would always be skipped.
+     */
+    private static void checkPrerequisites(Stage... stages) {
+        Set<String> laterPermissions = new HashSet<>();
+        for (Stage stage : stages) {
+            laterPermissions.addAll(Arrays.asList(stage.permissions));
+        }
+        for (Stage stage : stages) {
+            for (String prerequisite : stage.prerequisites) {
+                if (laterPermissions.contains(prerequisite)) {
+                    throw new IllegalArgumentException("Prerequisite " + prerequisite + " is requested in the same stage or a later one. Request it in an earlier stage instead.");
+                }
+            }
+            laterPermissions.removeAll(Arrays.asList(stage.permissions));
+        }
+    }
+
+    /**
+     * Ensures that our WeakReference to the Activity is still valid. If it isn't, throw an exception saying that the
+     * Activity needs to be set.
+     */
+    private Activity checkActivity() {
+        Activity activity = getActivity();
+        if (activity == null) {
+            throw new IllegalStateException("No activity set. Either subclass PermisoActivity or call Permiso.setActivity() in onCreate() and onResume() of your Activity.");
+        }
+        return activity;
+    }
+
+
+    // =====================================================================
+    // Inner Classes
+    // =====================================================================
+
+    /**
+     * A callback interface for receiving the results of a permission request.
+     */
+    public interface IOnPermissionResult {
+        /**
+         * Invoked when the results of your permission request are ready.
+         * @param resultSet An object holding the result of your permission request.
+         */
+        void onPermissionResult(ResultSet resultSet);
+
+        /**
+         * Called when the system recommends that you provide a rationale for a permission. This typically happens when
+         * a user denies a permission, but they you request it again.
+         * @param callback    A callback to be triggered when you are finished showing the user the rationale.
+         * @param permissions The list of permissions for which the system recommends you provide a rationale.
+         */
+        void onRationaleRequested(IOnRationaleProvided callback, String... permissions);
+    }
+
+    /**
+     * Simple callback to let Permiso know that you have finished providing the user a rationale for a set of permissions.
+     * For easy handling of this callback, consider using
+     * {@link Permiso#showRationaleInDialog(String, String, String, IOnRationaleProvided)}.
+     */
+    public interface IOnRationaleProvided {
+        /**
+         * Invoke this method when you are done providing a rationale to the user in
+         * {@link IOnPermissionResult#onRationaleRequested(IOnRationaleProvided, String...)}. The permission request
+         * will not be made until this method is invoked.
+         */
+        void onRationaleProvided();
+    }
+
+    /**
+     * A single stage of a request made with {@link #requestPermissionsInStages(IOnPermissionResult, Stage...)}.
+     */
+    public static class Stage {
+        private final String[] permissions;
+        private String[] prerequisites = new String[0];
+
+        /**
+         * @param permissions The permissions to request in this stage. Use constants from
+         *                    {@link android.Manifest.permission}.
+         */
+        public Stage(String... permissions) {
+            this.permissions = permissions;
+        }
+
+        /**
+         * Set the permissions that must be granted before this stage is requested. They can be requested in an earlier
+         * stage, or be ones you expect to already have, but not requested in this stage or a later one. If any of them
+         * isn't granted, this stage is skipped.
+         */
+        public Stage setPrerequisites(String... prerequisites) {
+            this.prerequisites = prerequisites;
+            return this;
+        }
+    }
+
+    /**
+     * Runs the stages of a request made with {@link #requestPermissionsInStages(IOnPermissionResult, Stage...)}. Keeps
+     * a single result set with every permission involved, which is filled in as each batch of stages finishes.
+     */
+    private class StagedRequest implements IOnPermissionResult {
+        private final IOnPermissionResult mCallback;
+        private final Stage[] mStages;
+        private ResultSet mResults;
+        private int mNextStage;
+
+        /**
+         * The permissions that are currently being requested.
+         */
+        private final Set<String> mPending = new LinkedHashSet<>();
+
+        StagedRequest(IOnPermissionResult callback, Stage... stages) {
+            mCallback = callback;
+            mStages = stages;
+        }
+
+        void start(Activity activity) {
+            Set<String> permissions = new LinkedHashSet<>();
+            for (Stage stage : mStages) {
+                permissions.addAll(Arrays.asList(stage.prerequisites));
+                permissions.addAll(Arrays.asList(stage.permissions));
+            }
+            String[] allPermissions = permissions.toArray(new String[permissions.size()]);
+
+            mResults = new ResultSet(allPermissions);
+            markGrantedPermissions(mResults, activity, allPermissions);
+            requestNextStages(activity);
+        }
+
+        /**
+         * Requests as many of the remaining stages as we can at once: we keep adding stages until we reach one that
+         * depends on a permission we're about to request. Stages with denied prerequisites are skipped along the way.
+         */
+        private void requestNextStages(Activity activity) {
+            mPending.clear();
+
+            while (mNextStage < mStages.length) {
+                Stage stage = mStages[mNextStage];
+
+                boolean waitingOnPending = false;
+                boolean prerequisitesDenied = false;
+                for (String prerequisite : stage.prerequisites) {
+                    if (mPending.contains(prerequisite)) {
+                        waitingOnPending = true;
+                    } else if (!mResults.isPermissionGranted(prerequisite)) {
+                        prerequisitesDenied = true;
+                    }
+                }
+
+                if (waitingOnPending) {
+                    break;
+                }
+                mNextStage++;
+                if (prerequisitesDenied) {
+                    continue;
+                }
+
+                for (String permission : stage.permissions) {
+                    if (!mResults.isPermissionGranted(permission)) {
+                        mPending.add(permission);
+                    }
+                }
+            }
+
+            if (mPending.isEmpty()) {
+                finish();
+            } else {
+                String[] pending = mPending.toArray(new String[mPending.size()]);
+                executeRequest(new RequestData(this, null, pending), activity);
+            }
+        }
+
+        /**
+         * Hands the results of every stage's permissions to the callback.
+         */
+        private void finish() {
+            Set<String> permissions = new LinkedHashSet<>();
+            for (Stage stage : mStages) {
+                permissions.addAll(Arrays.asList(stage.permissions));
+            }
+
+            ResultSet resultSet = new ResultSet(permissions.toArray(new String[permissions.size()]));
+            for (String permission : permissions) {
+                resultSet.requestResults.put(permission, mResults.requestResults.get(permission));
+            }
+            mCallback.onPermissionResult(resultSet);
+        }
+
+        @Override
+        public void onPermissionResult(ResultSet resultSet) {
+            mResults.requestResults.putAll(resultSet.requestResults);
+            requestNextStages(checkActivity());
+        }
+
+        @Override
+        public void onRationaleRequested(IOnRationaleProvided callback, String... permissions) {
+            mCallback.onRationaleRequested(callback, permissions);
+        }
+    }
+
+    private static class RequestData {
+        final IOnPermissionResult onResultListener;
+        final Executor executor;
+        final ResultSet resultSet;
+
+        /**
+         * Requests that were merged into this one, and will receive its results when it completes.
+         */
+        final List<RequestData> linkedRequests = new ArrayList<>(0);
+
+        /**
+         * When we asked the system for this request's permissions, from {@link System#nanoTime()}.
+         */
+        volatile long systemRequestNanos;
+
+        public RequestData(
+                @NonNull IOnPermissionResult onResultListener,
+                @Nullable Executor executor,
+                String... permissions) {
+            this(onResultListener, executor, new ResultSet(permissions));
+        }
+
+        public RequestData(
+                @NonNull IOnPermissionResult onResultListener,
+                @Nullable Executor executor,
+                @NonNull ResultSet resultSet) {
+            this.onResultListener = onResultListener;
+            this.executor = executor;
+            this.resultSet = resultSet;
+        }
+    }
+
+    /**
+     * Keeps the results of recently denied requests, keyed by the set of permissions that were requested. Results are
+     * only handed back within the configured window, and are dropped as soon as one of their denied permissions is seen
+     * to be granted. Time comes from {@link PermissionBackend#uptimeMillis()}.
+     */
+    private static class DenialCache {
+        private final PermissionBackend mBackend;
+        private final Map<Set<String>, ResultSet> mResults = new HashMap<>();
+        private final Map<Set<String>, Long> mTimestamps = new HashMap<>();
+        private long mWindowMillis;
+
+        DenialCache(PermissionBackend backend) {
+            mBackend = backend;
+        }
+
+        synchronized void setWindow(long windowMillis) {
+            mWindowMillis = Math.max(0, windowMillis);
+            if (mWindowMillis == 0) {
+                mResults.clear();
+                mTimestamps.clear();
+            }
+        }
+
+        /**
+         * @return The denied results for exactly this set of permissions if they're still within the window, otherwise
+         *         null.
+         */
+        synchronized ResultSet get(String... permissions) {
+            if (mWindowMillis == 0 || mResults.isEmpty()) {
+                return null;
+            }
+
+            Set<String> key = new HashSet<>(Arrays.asList(permissions));
+            Long timestamp = mTimestamps.get(key);
+            if (timestamp == null) {
+                return null;
+            }
+            if (mBackend.uptimeMillis() - timestamp > mWindowMillis) {
+                mResults.remove(key);
+                mTimestamps.remove(key);
+                return null;
+            }
+            return mResults.get(key);
+        }
+
+        /**
+         * Like {@link #get(String...)}, but never forgets expired results. For when nothing can be changed.
+         */
+        synchronized ResultSet peek(String... permissions) {
+            if (mWindowMillis == 0 || mResults.isEmpty()) {
+                return null;
+            }
+
+            Set<String> key = new HashSet<>(Arrays.asList(permissions));
+            Long timestamp = mTimestamps.get(key);
+            if (timestamp == null || mBackend.uptimeMillis() - timestamp > mWindowMillis) {
+                return null;
+            }
+            return mResults.get(key);
+        }
+
+        /**
+         * Remembers a result set if any of its permissions were denied.
+         */
+        synchronized void put(ResultSet resultSet) {
+            if (mWindowMillis == 0 || resultSet.areAllPermissionsGranted()) {
+                return;
+            }
+            Set<String> key = new HashSet<>(resultSet.requestResults.keySet());
+            mResults.put(key, resultSet);
+            mTimestamps.put(key, mBackend.uptimeMillis());
+        }
+
+        /**
+         * Drops every remembered result set in which this permission wasn't granted, since it's now out of date.
+         */
+        synchronized void onPermissionGranted(String permission) {
+            if (mResults.isEmpty()) {
+                return;
+            }
+            Iterator<Map.Entry<Set<String>, ResultSet>> iterator = mResults.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Set<String>, ResultSet> entry = iterator.next();
+                if (entry.getKey().contains(permission) && !entry.getValue().isPermissionGranted(permission)) {
+                    mTimestamps.remove(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * A class representing the results of a permission request. Result sets are never modified once they have been
+     * handed to you, so they are safe to read from any thread.
+     * <p>
+     * Result sets are {@link Parcelable}, so you can pass them along to other components in a {@link Bundle} or an
+     * {@link android.content.Intent}. They're packed tightly: common permissions are written as small integer ids and
+     * each result only takes up two bits.
+     */
+    public static class ResultSet implements Parcelable {
+
+        /**
+         * Written in place of a permission id for permissions that don't have a stable id. The permission's name is
+         * written separately instead.
+         */
+        private static final int NO_STABLE_ID = -1;
+
+        private static final int BITS_PER_RESULT = 2;
+        private static final int RESULTS_PER_INT = Integer.SIZE / BITS_PER_RESULT;
+        private static final int RESULT_MASK = (1 << BITS_PER_RESULT) - 1;
+
+        public static final Creator<ResultSet> CREATOR = new Creator<ResultSet>() {
+            @Override
+            public ResultSet createFromParcel(Parcel in) {
+                return new ResultSet(in);
+            }
+
+            @Override
+            public ResultSet[] newArray(int size) {
+                return new ResultSet[size];
+            }
+        };
+
+        private final Map<String, Result> requestResults;
+
+        private ResultSet(String... permissions) {
+            requestResults = new HashMap<>(permissions.length);
+            for (String permission : permissions) {
+                requestResults.put(permission, Result.DENIED);
+            }
+        }
+
+        private ResultSet(Parcel in) {
+            int[] ids = in.createIntArray();
+            String[] names = in.createStringArray();
+            int[] packedResults = in.createIntArray();
+            Result[] results = Result.values();
+
+            requestResults = new HashMap<>(ids.length);
+            int nameIndex = 0;
+            for (int i = 0; i < ids.length; i++) {
+                String permission = ids[i] == NO_STABLE_ID ? names[nameIndex++] : PermissionIds.nameOf(ids[i]);
+                int ordinal = (packedResults[i / RESULTS_PER_INT] >>> ((i % RESULTS_PER_INT) * BITS_PER_RESULT)) & RESULT_MASK;
+                requestResults.put(permission, results[ordinal]);
+            }
+        }
+
+        @VisibleForTesting
+        static ResultSet of(Map<String, Result> results) {
+            ResultSet resultSet = new ResultSet();
+            resultSet.requestResults.putAll(results);
+            return resultSet;
+        }
+
+        /**
+         * Checks if a permission was granted during your permission request.
+         * @param permission The permission you are inquiring about. This should be a constant from {@link android.Manifest.permission}.
+         * @return True if the permission was granted, otherwise false.
+         */
+        public boolean isPermissionGranted(String permission) {
+            return requestResults.containsKey(permission) && requestResults.get(permission) == Result.GRANTED;
+        }
+
+        /**
+         * Determines if all permissions in the request were granted.
+         * @return True if all permissions in the request were granted, otherwise false.
+         */
+        public boolean areAllPermissionsGranted() {
+            return !requestResults.containsValue(Result.DENIED) && !requestResults.containsValue(Result.PERMANENTLY_DENIED);
+        }
+
+        /**
+         * Checks if a permission was permanently denied by the user (i.e. they denied and selected "Dont Ask Again".)
+         * @param permission The permission you are inquiring about. This should be a constant from {@link android.Manifest.permission}.
+         * @return True if the permission was permanently denied, otherwise false.
+         */
+        public boolean isPermissionPermanentlyDenied(String permission) {
+            return requestResults.containsKey(permission) && requestResults.get(permission) == Result.PERMANENTLY_DENIED;
+        }
+
+        /**
+         * Returns a map representation of this result set. Useful if you'd like to do more complicated operations
+         * with the results.
+         * @return
+         *      A mapping of permission constants to {@link Result}.
+         */
+        public Map<String, Result> toMap() {
+            return new HashMap<>(requestResults);
+        }
+
+        /**
+         * Returns a read-only view of this result set as a map. Unlike {@link #toMap()}, nothing is copied, so this is
+         * the cheaper option if you only need to read the results.
+         * @return
+         *      An unmodifiable mapping of permission constants to {@link Result}.
+         */
+        public Map<String, Result> asMap() {
+            return Collections.unmodifiableMap(requestResults);
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            int size = requestResults.size();
+            int[] ids = new int[size];
+            List<String> names = new ArrayList<>(0);
+            int[] packedResults = new int[(size + RESULTS_PER_INT - 1) / RESULTS_PER_INT];
+
+            int i = 0;
+            for (Map.Entry<String, Result> entry : requestResults.entrySet()) {
+                int id = PermissionIds.find(entry.getKey());
+                if (PermissionIds.isKnown(id)) {
+                    ids[i] = id;
+                } else {
+                    ids[i] = NO_STABLE_ID;
+                    names.add(entry.getKey());
+                }
+                packedResults[i / RESULTS_PER_INT] |= entry.getValue().ordinal() << ((i % RESULTS_PER_INT) * BITS_PER_RESULT);
+                i++;
+            }
+
+            dest.writeIntArray(ids);
+            dest.writeStringArray(names.toArray(new String[names.size()]));
+            dest.writeIntArray(packedResults);
+        }
+
+        /**
+         * Marks each of the provided permissions as granted if the system reports that it has already been granted, or if
+         * it doesn't need a runtime grant on this device at all.
+         */
+        private void grantPermissions(
+                PermissionBackend backend,
+                PermissionCapabilities capabilities,
+                Context context,
+                String... permissions) {
+            for (String permission : permissions) {
+                // Permissions that don't need a runtime grant are granted without asking the system
+                if (!capabilities.needsRuntimeGrant(context, permission)
+                        || backend.isPermissionGranted(context, permission)) {
+                    requestResults.put(permission, Result.GRANTED);
+                }
+            }
+        }
+
+        private void parsePermissionResults(
+                PermissionBackend backend,
+                String[] permissions,
+                int[] grantResults,
+                Activity activity) {
             for (int i = 0; i < permissions.length; i++) {
                 if (grantResults[i] == PackageManager.PERMISSION_GRANTED) {
                     requestResults.put(permissions[i], Result.GRANTED);
-                } else if (!ActivityCompat.shouldShowRequestPermissionRationale(activity, permissions[i])) {
+                } else if (!backend.shouldShowRequestPermissionRationale(activity, permissions[i])) {
                     requestResults.put(permissions[i], Result.PERMANENTLY_DENIED);
                 } else {
                     requestResults.put(permissions[i], Result.DENIED);
@@ -421,6 +1473,15 @@ public class Permiso {
             }
         }
 
+        /**
+         * Copies the results of every permission we don't have granted from a result set that has all of them.
+         */
+        private void copyUngrantedResults(ResultSet source) {
+            for (String permission : getUngrantedPermissions()) {
+                requestResults.put(permission, source.requestResults.get(permission));
+            }
+        }
+
         private String[] getUngrantedPermissions() {
             List<String> ungrantedList = new ArrayList<>(requestResults.size());
             for (Map.Entry<String, Result> requestResultsEntry : requestResults.entrySet()) {
@@ -437,11 +1498,11 @@ public class Permiso {
             return requestResults.keySet().containsAll(ungranted);
         }
 
-        private String[] getPermissionsThatNeedRationale(Activity activity) {
+        private String[] getPermissionsThatNeedRationale(PermissionBackend backend, Activity activity) {
             String[] ungranted = getUngrantedPermissions();
             List<String> shouldShowRationale = new ArrayList<>(ungranted.length);
             for (String permission : ungranted) {
-                if (ActivityCompat.shouldShowRequestPermissionRationale(activity, permission)) {
+                if (backend.shouldShowRequestPermissionRationale(activity, permission)) {
                     shouldShowRationale.add(permission);
                 }
             }
@@ -449,8 +1510,305 @@ public class Permiso {
         }
     }
 
+    /**
+     * What a call to {@link #requestPermissions(IOnPermissionResult, String...)} would do, as worked out by
+     * {@link #plan(String...)}.
+     */
+    public static class RequestPlan {
+        private final String[] permissions;
+        private final String[] alreadyGranted;
+        private final String[] ungranted;
+        private final boolean debounced;
+        private final int linkedRequestCode;
+        private final String[] rationalePermissions;
+        private final boolean usesTrampoline;
+        private final int grantChecks;
+        private final int rationaleChecks;
+        private final int systemRequests;
+
+        RequestPlan(
+                String[] permissions,
+                String[] alreadyGranted,
+                String[] ungranted,
+                boolean debounced,
+                int linkedRequestCode,
+                String[] rationalePermissions,
+                boolean usesTrampoline,
+                int grantChecks,
+                int rationaleChecks,
+                int systemRequests) {
+            this.permissions = permissions;
+            this.alreadyGranted = alreadyGranted;
+            this.ungranted = ungranted;
+            this.debounced = debounced;
+            this.linkedRequestCode = linkedRequestCode;
+            this.rationalePermissions = rationalePermissions;
+            this.usesTrampoline = usesTrampoline;
+            this.grantChecks = grantChecks;
+            this.rationaleChecks = rationaleChecks;
+            this.systemRequests = systemRequests;
+        }
+
+        /**
+         * @return The permissions that were planned for.
+         */
+        public String[] getPermissions() {
+            return permissions.clone();
+        }
+
+        /**
+         * @return The permissions that are already granted, or that don't need a runtime grant on this device. Empty if
+         *         the request is debounced, since nothing is checked.
+         */
+        public String[] getAlreadyGranted() {
+            return alreadyGranted.clone();
+        }
+
+        /**
+         * @return The permissions that still need to be granted. Empty if the request is debounced.
+         */
+        public String[] getUngranted() {
+            return ungranted.clone();
+        }
+
+        /**
+         * @return True if the request would immediately get the results of an identical request that was recently
+         *         denied. See {@link #setDenialDebounceWindow(long)}.
+         */
+        public boolean isDebounced() {
+            return debounced;
+        }
+
+        /**
+         * @return True if the request would be merged into an active request instead of making its own.
+         */
+        public boolean isLinked() {
+            return linkedRequestCode != NO_REQUEST_CODE;
+        }
+
+        /**
+         * @return The request code of the active request this request would be merged into, or 0 if it wouldn't be.
+         */
+        public int getLinkedRequestCode() {
+            return linkedRequestCode;
+        }
+
+        /**
+         * @return The permissions that {@link IOnPermissionResult#onRationaleRequested(IOnRationaleProvided, String...)}
+         *         would be called with. Empty if no rationale would be requested.
+         */
+        public String[] getRationalePermissions() {
+            return rationalePermissions.clone();
+        }
+
+        /**
+         * @return True if the user has to be asked but there's no activity to do it from, so
+         *         {@link #requestPermissions(Context, IOnPermissionResult, String...)} would start a
+         *         {@link PermisoTrampolineActivity}. Rationales can't be predicted in that case.
+         */
+        public boolean usesTrampoline() {
+            return usesTrampoline;
+        }
+
+        /**
+         * @return The number of times the system would be asked whether a permission is granted.
+         */
+        public int getPredictedGrantChecks() {
+            return grantChecks;
+        }
+
+        /**
+         * @return The number of times the system would be asked whether to show a rationale before the request is made.
+         */
+        public int getPredictedRationaleChecks() {
+            return rationaleChecks;
+        }
+
+        /**
+         * @return The number of times the system would be asked to request permissions: 1 or 0.
+         */
+        public int getPredictedSystemRequests() {
+            return systemRequests;
+        }
+
+        /**
+         * @return The number of times {@link IOnPermissionResult#onRationaleRequested(IOnRationaleProvided, String...)}
+         *         would be called: 1 or 0.
+         */
+        public int getPredictedRationalePrompts() {
+            return rationalePermissions.length > 0 ? 1 : 0;
+        }
+
+        /**
+         * @return The most permission prompts the user could see. The system may show fewer, as it groups related
+         *         permissions and skips those marked "Don't Ask Again".
+         */
+        public int getPredictedSystemDialogs() {
+            return systemRequests > 0 ? ungranted.length : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "RequestPlan{" +
+                    "permissions=" + Arrays.toString(permissions) +
+                    ", alreadyGranted=" + Arrays.toString(alreadyGranted) +
+                    ", ungranted=" + Arrays.toString(ungranted) +
+                    ", debounced=" + debounced +
+                    ", linkedRequestCode=" + linkedRequestCode +
+                    ", rationalePermissions=" + Arrays.toString(rationalePermissions) +
+                    ", usesTrampoline=" + usesTrampoline +
+                    ", grantChecks=" + grantChecks +
+                    ", rationaleChecks=" + rationaleChecks +
+                    ", systemRequests=" + systemRequests +
+                    '}';
+        }
+    }
+
+    /**
+     * The phases of a permission request that Permiso keeps latency histograms for. See
+     * {@link #getLatencySnapshot(boolean)}.
+     */
+    public enum Phase {
+        /**
+         * Asking the system which permissions are already granted.
+         */
+        GRANT_CHECK,
+
+        /**
+         * Looking for an active request that a new request can be merged into.
+         */
+        DEDUP_LOOKUP,
+
+        /**
+         * From asking for a rationale until it has been provided, which is typically while the user reads it.
+         */
+        RATIONALE_DWELL,
+
+        /**
+         * From asking the system for permissions until it gives us the results. Includes the time the user spends in the
+         * system dialog.
+         */
+        SYSTEM_DIALOG,
+
+        /**
+         * Handing results to callbacks. Callbacks with an executor only count the time it takes to hand them over.
+         */
+        CALLBACK_DISPATCH
+    }
+
+    /**
+     * A copy of Permiso's latency histograms at a point in time. Each {@link Phase} has a histogram whose buckets are
+     * powers of two in microseconds: bucket 0 holds everything under 1 microsecond and bucket {@code i} holds everything
+     * under {@code 2^i} microseconds that didn't fit in the previous bucket.
+     */
+    public static class LatencySnapshot {
+        private final long[][] buckets;
+        private final long[] totalNanos;
+        private final long[] maxNanos;
+
+        LatencySnapshot(long[][] buckets, long[] totalNanos, long[] maxNanos) {
+            this.buckets = buckets;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * @return The number of samples recorded for the phase.
+         */
+        public long getCount(Phase phase) {
+            long count = 0;
+            for (long bucket : buckets[phase.ordinal()]) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * @return The sum of every sample recorded for the phase, in nanoseconds.
+         */
+        public long getTotalNanos(Phase phase) {
+            return totalNanos[phase.ordinal()];
+        }
+
+        /**
+         * @return The largest sample recorded for the phase, in nanoseconds.
+         */
+        public long getMaxNanos(Phase phase) {
+            return maxNanos[phase.ordinal()];
+        }
+
+        /**
+         * @return A copy of the phase's histogram. Use {@link #getBucketUpperBoundMicros(int)} to find each bucket's
+         *         range.
+         */
+        public long[] getBuckets(Phase phase) {
+            return buckets[phase.ordinal()].clone();
+        }
+
+        /**
+         * @return The exclusive upper bound of a bucket in microseconds, or {@link Long#MAX_VALUE} for the last bucket.
+         */
+        public static long getBucketUpperBoundMicros(int bucket) {
+            return LatencyHistograms.upperBoundMicros(bucket);
+        }
+
+        /**
+         * Estimates a percentile of a phase's samples.
+         * @param phase      The phase.
+         * @param percentile The percentile you want, between 0 and 100.
+         * @return The upper bound, in microseconds, of the bucket the percentile falls in, or 0 if there are no samples.
+         */
+        public long getPercentileMicros(Phase phase, double percentile) {
+            long count = getCount(phase);
+            if (count == 0) {
+                return 0;
+            }
+
+            long target = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            long[] phaseBuckets = buckets[phase.ordinal()];
+            for (int i = 0; i < phaseBuckets.length; i++) {
+                seen += phaseBuckets[i];
+                if (seen >= target) {
+                    return getBucketUpperBoundMicros(i);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Writes this snapshot out as CSV, one line per phase: the phase, its count, total, max, p50, p90 and p99 in
+         * microseconds, followed by the count in each bucket.
+         */
+        public void writeTo(PrintWriter writer) {
+            for (Phase phase : Phase.values()) {
+                writer.print(phase.name());
+                writer.print(',');
+                writer.print(getCount(phase));
+                writer.print(',');
+                writer.print(getTotalNanos(phase) / 1000);
+                writer.print(',');
+                writer.print(getMaxNanos(phase) / 1000);
+                writer.print(',');
+                writer.print(getPercentileMicros(phase, 50));
+                writer.print(',');
+                writer.print(getPercentileMicros(phase, 90));
+                writer.print(',');
+                writer.print(getPercentileMicros(phase, 99));
+                for (long bucket : buckets[phase.ordinal()]) {
+                    writer.print(',');
+                    writer.print(bucket);
+                }
+                writer.println();
+            }
+        }
+    }
+
     /**
      * Describes the result of a permission request.
+     * <p>
+     * <strong>Note: </strong> {@link ResultSet} packs these into two bits each when parceled, so there can't be more than
+     * four of them, and their order must not change.
      */
     public enum Result {
         /**
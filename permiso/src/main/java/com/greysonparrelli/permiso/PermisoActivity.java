@@ -5,11 +5,15 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * An Activity that handles the small amount of boilerplate that {@link Permiso} requires to run. If you'd rather not
  * use this as your base activity class, simply remember to do the following in each of your activities:
  * <ul>
  *     <li>Call {@link Permiso#setActivity(Activity)} in {@link Activity#onCreate(Bundle)} and {@link Activity#onResume()}</li>
+ *     <li>Call {@link Permiso#onActivityStopped(Activity)} in {@link Activity#onStop()}</li>
  *     <li>Call {@link Permiso#onRequestPermissionResult(int, String[], int[])} in
  *      {@link Activity#onRequestPermissionsResult(int, String[], int[])}</li>
  * </ul>
@@ -28,9 +32,21 @@ public class PermisoActivity extends AppCompatActivity {
         Permiso.getInstance().setActivity(this);
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        Permiso.getInstance().onActivityStopped(this);
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         Permiso.getInstance().onRequestPermissionResult(requestCode, permissions, grantResults);
     }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Permiso.getInstance().dump(prefix, writer);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.ActivityCompat;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * A transparent Activity that {@link Permiso} starts by itself when it needs to request permissions but no Activity is
+ * available, like when a request is made from a {@link android.app.Service} or a notification. It has no UI of its own,
+ * runs the requests that were waiting for it, and finishes as soon as Permiso has no more active requests.
+ * <p>
+ * You should never need to start this yourself.
+ */
+public class PermisoTrampolineActivity extends Activity implements ActivityCompat.OnRequestPermissionsResultCallback {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        Permiso.getInstance().onTrampolineCreated(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        Permiso.getInstance().setActivity(this);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        Permiso.getInstance().onActivityStopped(this);
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        // No call to super: Activity only has this from API 23, and below that ActivityCompat calls us directly
+        Permiso.getInstance().onRequestPermissionResult(requestCode, permissions, grantResults);
+    }
+
+    @Override
+    public void finish() {
+        super.finish();
+        // We were never visible, so don't animate out either
+        overridePendingTransition(0, 0);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Permiso.getInstance().dump(prefix, writer);
+    }
+}
@@ -0,0 +1,63 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+/**
+ * Everything {@link Permiso} needs from the system. Lets the engine be driven without a device.
+ */
+interface PermissionBackend {
+
+    /**
+     * @return True if the permission has been granted to the app.
+     */
+    boolean isPermissionGranted(Context context, String permission);
+
+    /**
+     * @return True if the system recommends showing a rationale before requesting the permission.
+     */
+    boolean shouldShowRequestPermissionRationale(Activity activity, String permission);
+
+    /**
+     * Asks the system to request the permissions. The results are later given to
+     * {@link Permiso#onRequestPermissionResult(int, String[], int[])} with the same request code.
+     */
+    void requestPermissions(Activity activity, String[] permissions, int requestCode);
+
+    /**
+     * @return The API level of the device.
+     */
+    int getSdkInt();
+
+    /**
+     * @return The API level the app targets.
+     */
+    int getTargetSdkInt(Context context);
+
+    /**
+     * @return The permissions declared in the app's manifest that apply on this device, or null if they can't be found.
+     */
+    @Nullable
+    String[] getRequestedPermissions(Context context);
+
+    /**
+     * @return The application context of the given context.
+     */
+    Context getApplicationContext(Context context);
+
+    /**
+     * @return True if the activity is finishing, so it can't be used to make requests anymore.
+     */
+    boolean isFinishing(Activity activity);
+
+    /**
+     * Starts a {@link PermisoTrampolineActivity} in a new task.
+     */
+    void startTrampoline(Context context);
+
+    /**
+     * @return Milliseconds since some fixed point, which never jumps. Only used to measure time.
+     */
+    long uptimeMillis();
+}
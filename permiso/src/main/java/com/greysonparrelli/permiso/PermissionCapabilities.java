@@ -0,0 +1,190 @@
+package com.greysonparrelli.permiso;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Knows which permissions actually need a runtime grant on this device, so that the rest don't have to be checked with
+ * (or requested from) the system. A permission doesn't need a runtime grant if:
+ * <ul>
+ *     <li>We're below API 23, or below the API level where it became a runtime permission, and the app declares it.</li>
+ *     <li>It's a normal (install-time) permission and the app declares it.</li>
+ *     <li>It's a storage permission that's been left out of the app's permissions (because the device is past its
+ *     {@code maxSdkVersion}) where it no longer controls access to shared storage: both the device and the app's target
+ *     SDK are at or above the API level where that changed.</li>
+ * </ul>
+ * Anything we aren't sure about is treated as a runtime permission, so it goes through the usual checks.
+ * <p>
+ * The answer for each permission never changes while the process is alive, so it's worked out once and cached.
+ */
+final class PermissionCapabilities {
+
+    enum Capability {
+        /**
+         * Has to be checked with the system, and requested if it isn't granted.
+         */
+        RUNTIME,
+
+        /**
+         * Granted when the app was installed.
+         */
+        INSTALL_TIME,
+
+        /**
+         * Doesn't apply on this device, so there's nothing to grant.
+         */
+        NOT_APPLICABLE
+    }
+
+    /**
+     * The API level where runtime permissions were introduced.
+     */
+    private static final int RUNTIME_PERMISSIONS_SDK = 23;
+
+    /**
+     * Runtime permissions that were added after API 23, keyed to the API level where they became runtime permissions.
+     * Only includes permissions whose capability was available to apps without a runtime grant on earlier releases.
+     * Listed as strings so we aren't limited to the constants in our compile SDK.
+     */
+    private static final Map<String, Integer> LATE_RUNTIME_PERMISSIONS = new HashMap<>();
+    static {
+        LATE_RUNTIME_PERMISSIONS.put("android.permission.ACTIVITY_RECOGNITION", 29);
+        LATE_RUNTIME_PERMISSIONS.put("android.permission.BLUETOOTH_SCAN", 31);
+        LATE_RUNTIME_PERMISSIONS.put("android.permission.BLUETOOTH_CONNECT", 31);
+        LATE_RUNTIME_PERMISSIONS.put("android.permission.BLUETOOTH_ADVERTISE", 31);
+        LATE_RUNTIME_PERMISSIONS.put("android.permission.UWB_RANGING", 31);
+        LATE_RUNTIME_PERMISSIONS.put("android.permission.POST_NOTIFICATIONS", 33);
+    }
+
+    /**
+     * Permissions with a normal protection level, which are always granted at install time.
+     */
+    private static final Set<String> NORMAL_PERMISSIONS = new HashSet<>(Arrays.asList(
+            "android.permission.ACCESS_LOCATION_EXTRA_COMMANDS",
+            "android.permission.ACCESS_NETWORK_STATE",
+            "android.permission.ACCESS_NOTIFICATION_POLICY",
+            "android.permission.ACCESS_WIFI_STATE",
+            "android.permission.BLUETOOTH",
+            "android.permission.BLUETOOTH_ADMIN",
+            "android.permission.BROADCAST_STICKY",
+            "android.permission.CHANGE_NETWORK_STATE",
+            "android.permission.CHANGE_WIFI_MULTICAST_STATE",
+            "android.permission.CHANGE_WIFI_STATE",
+            "android.permission.DISABLE_KEYGUARD",
+            "android.permission.EXPAND_STATUS_BAR",
+            "android.permission.FOREGROUND_SERVICE",
+            "android.permission.GET_PACKAGE_SIZE",
+            "android.permission.INTERNET",
+            "android.permission.KILL_BACKGROUND_PROCESSES",
+            "android.permission.MODIFY_AUDIO_SETTINGS",
+            "android.permission.NFC",
+            "android.permission.READ_SYNC_SETTINGS",
+            "android.permission.READ_SYNC_STATS",
+            "android.permission.RECEIVE_BOOT_COMPLETED",
+            "android.permission.REORDER_TASKS",
+            "android.permission.REQUEST_DELETE_PACKAGES",
+            "android.permission.SET_ALARM",
+            "android.permission.SET_WALLPAPER",
+            "android.permission.SET_WALLPAPER_HINTS",
+            "android.permission.TRANSMIT_IR",
+            "android.permission.USE_BIOMETRIC",
+            "android.permission.USE_FINGERPRINT",
+            "android.permission.VIBRATE",
+            "android.permission.WAKE_LOCK",
+            "android.permission.WRITE_SYNC_SETTINGS"));
+
+    /**
+     * Storage permissions that apps commonly declare with a {@code maxSdkVersion}, keyed to the API level where they
+     * stopped controlling access to shared storage. Past its {@code maxSdkVersion}, the system leaves a permission out
+     * of the app's permissions entirely. The new behavior only applies to apps that target these levels too, though.
+     * Below them, a missing storage permission is far more likely to have been forgotten, and the app would hit a
+     * {@link SecurityException} if we reported it as granted.
+     */
+    private static final Map<String, Integer> STORAGE_PERMISSIONS = new HashMap<>();
+    static {
+        // Scoped storage is enforced for every app from API 30
+        STORAGE_PERMISSIONS.put("android.permission.WRITE_EXTERNAL_STORAGE", 30);
+        // Replaced by the READ_MEDIA_* permissions in API 33
+        STORAGE_PERMISSIONS.put("android.permission.READ_EXTERNAL_STORAGE", 33);
+    }
+
+    private final PermissionBackend mBackend;
+    private final ConcurrentHashMap<String, Capability> mCapabilities = new ConcurrentHashMap<>();
+
+    /**
+     * The permissions the app declares that apply on this device, or null if we haven't looked them up yet.
+     */
+    private volatile Set<String> mRequestedPermissions;
+
+    PermissionCapabilities(PermissionBackend backend) {
+        mBackend = backend;
+    }
+
+    /**
+     * @return What the permission needs on this device.
+     */
+    Capability of(Context context, String permission) {
+        Capability capability = mCapabilities.get(permission);
+        if (capability == null) {
+            capability = classify(context, permission);
+            mCapabilities.put(permission, capability);
+        }
+        return capability;
+    }
+
+    /**
+     * @return True if the permission has to be checked with the system, and requested if it isn't granted.
+     */
+    boolean needsRuntimeGrant(Context context, String permission) {
+        return of(context, permission) == Capability.RUNTIME;
+    }
+
+    private Capability classify(Context context, String permission) {
+        Set<String> requested = getRequestedPermissions(context);
+        if (requested == null) {
+            // We can't tell what the app declares, so play it safe
+            return Capability.RUNTIME;
+        }
+
+        int sdkInt = mBackend.getSdkInt();
+        boolean declared = requested.contains(permission);
+        if (!declared) {
+            Integer notApplicableSdk = STORAGE_PERMISSIONS.get(permission);
+            if (notApplicableSdk == null) {
+                return Capability.RUNTIME;
+            }
+            int effectiveSdkInt = Math.min(sdkInt, mBackend.getTargetSdkInt(context));
+            return effectiveSdkInt >= notApplicableSdk ? Capability.NOT_APPLICABLE : Capability.RUNTIME;
+        }
+
+        if (sdkInt < RUNTIME_PERMISSIONS_SDK || NORMAL_PERMISSIONS.contains(permission)) {
+            return Capability.INSTALL_TIME;
+        }
+
+        Integer runtimeSdk = LATE_RUNTIME_PERMISSIONS.get(permission);
+        if (runtimeSdk != null && sdkInt < runtimeSdk) {
+            return Capability.INSTALL_TIME;
+        }
+        return Capability.RUNTIME;
+    }
+
+    private Set<String> getRequestedPermissions(Context context) {
+        Set<String> requested = mRequestedPermissions;
+        if (requested == null) {
+            String[] permissions = mBackend.getRequestedPermissions(context);
+            if (permissions == null) {
+                return null;
+            }
+            requested = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(permissions)));
+            mRequestedPermissions = requested;
+        }
+        return requested;
+    }
+}
@@ -0,0 +1,130 @@
+package com.greysonparrelli.permiso;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns permission names into small integer ids, so that the rest of Permiso can store and compare permissions as
+ * primitives. The well-known runtime permissions always get the same ids, in the order of {@link #KNOWN_PERMISSIONS}.
+ * Any other permission is given the next free id the first time it is seen, so those ids are only stable within a
+ * single process.
+ */
+final class PermissionIds {
+
+    /**
+     * Returned by {@link #find(String)} for permissions that haven't been interned yet.
+     */
+    static final int UNKNOWN = -1;
+
+    /**
+     * Runtime permissions, listed as strings so we aren't limited to the constants in our compile SDK.
+     * <strong>Only ever append to this list</strong>, as the ids derived from it are written into parcels.
+     */
+    static final String[] KNOWN_PERMISSIONS = {
+            "android.permission.READ_CALENDAR",
+            "android.permission.WRITE_CALENDAR",
+            "android.permission.CAMERA",
+            "android.permission.READ_CONTACTS",
+            "android.permission.WRITE_CONTACTS",
+            "android.permission.GET_ACCOUNTS",
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.ACCESS_COARSE_LOCATION",
+            "android.permission.RECORD_AUDIO",
+            "android.permission.READ_PHONE_STATE",
+            "android.permission.CALL_PHONE",
+            "android.permission.READ_CALL_LOG",
+            "android.permission.WRITE_CALL_LOG",
+            "com.android.voicemail.permission.ADD_VOICEMAIL",
+            "android.permission.USE_SIP",
+            "android.permission.PROCESS_OUTGOING_CALLS",
+            "android.permission.BODY_SENSORS",
+            "android.permission.SEND_SMS",
+            "android.permission.RECEIVE_SMS",
+            "android.permission.READ_SMS",
+            "android.permission.RECEIVE_WAP_PUSH",
+            "android.permission.RECEIVE_MMS",
+            "android.permission.READ_EXTERNAL_STORAGE",
+            "android.permission.WRITE_EXTERNAL_STORAGE",
+            "android.permission.READ_PHONE_NUMBERS",
+            "android.permission.ANSWER_PHONE_CALLS",
+            "android.permission.ACCEPT_HANDOVER",
+            "android.permission.ACCESS_BACKGROUND_LOCATION",
+            "android.permission.ACCESS_MEDIA_LOCATION",
+            "android.permission.ACTIVITY_RECOGNITION",
+            "android.permission.BLUETOOTH_SCAN",
+            "android.permission.BLUETOOTH_CONNECT",
+            "android.permission.BLUETOOTH_ADVERTISE",
+            "android.permission.UWB_RANGING",
+            "android.permission.POST_NOTIFICATIONS",
+            "android.permission.NEARBY_WIFI_DEVICES",
+            "android.permission.READ_MEDIA_IMAGES",
+            "android.permission.READ_MEDIA_VIDEO",
+            "android.permission.READ_MEDIA_AUDIO",
+            "android.permission.BODY_SENSORS_BACKGROUND",
+            "android.permission.READ_MEDIA_VISUAL_USER_SELECTED"
+    };
+
+    private static final ConcurrentHashMap<String, Integer> sIds = new ConcurrentHashMap<>();
+
+    /**
+     * Indexed by id. Replaced (never modified) whenever a new permission is interned, so it can be read without locking.
+     */
+    private static volatile String[] sNames = KNOWN_PERMISSIONS;
+
+    static {
+        for (int i = 0; i < KNOWN_PERMISSIONS.length; i++) {
+            sIds.put(KNOWN_PERMISSIONS[i], i);
+        }
+    }
+
+    private PermissionIds() {}
+
+    /**
+     * @return The id of the permission, interning it if this is the first time we've seen it.
+     */
+    static int idOf(String permission) {
+        Integer id = sIds.get(permission);
+        if (id != null) {
+            return id;
+        }
+        return intern(permission);
+    }
+
+    /**
+     * @return The id of the permission, or {@link #UNKNOWN} if it hasn't been interned. Never allocates.
+     */
+    static int find(String permission) {
+        Integer id = sIds.get(permission);
+        return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * @return The name of the permission with the given id, or null if there is no such id.
+     */
+    static String nameOf(int id) {
+        String[] names = sNames;
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    /**
+     * @return True if the id belongs to one of the {@link #KNOWN_PERMISSIONS}, and is therefore stable across processes.
+     */
+    static boolean isKnown(int id) {
+        return id >= 0 && id < KNOWN_PERMISSIONS.length;
+    }
+
+    private static synchronized int intern(String permission) {
+        // Someone may have beaten us to it
+        Integer existing = sIds.get(permission);
+        if (existing != null) {
+            return existing;
+        }
+
+        String[] names = Arrays.copyOf(sNames, sNames.length + 1);
+        int id = names.length - 1;
+        names[id] = permission;
+        sNames = names;
+        sIds.put(permission, id);
+        return id;
+    }
+}
@@ -0,0 +1,76 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
+
+/**
+ * The {@link PermissionBackend} used in practice, which talks to the real system.
+ */
+class SystemPermissionBackend implements PermissionBackend {
+
+    @Override
+    public boolean isPermissionGranted(Context context, String permission) {
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        return ActivityCompat.shouldShowRequestPermissionRationale(activity, permission);
+    }
+
+    @Override
+    public void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        ActivityCompat.requestPermissions(activity, permissions, requestCode);
+    }
+
+    @Override
+    public int getSdkInt() {
+        return Build.VERSION.SDK_INT;
+    }
+
+    @Override
+    public int getTargetSdkInt(Context context) {
+        return context.getApplicationInfo().targetSdkVersion;
+    }
+
+    @Override
+    public String[] getRequestedPermissions(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+            // Null if the app doesn't declare any permissions
+            return info.requestedPermissions != null ? info.requestedPermissions : new String[0];
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Context getApplicationContext(Context context) {
+        Context applicationContext = context.getApplicationContext();
+        return applicationContext != null ? applicationContext : context;
+    }
+
+    @Override
+    public boolean isFinishing(Activity activity) {
+        return activity.isFinishing();
+    }
+
+    @Override
+    public void startTrampoline(Context context) {
+        Intent intent = new Intent(context, PermisoTrampolineActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(intent);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
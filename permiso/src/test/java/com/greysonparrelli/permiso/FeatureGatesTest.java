@@ -0,0 +1,57 @@
+package com.greysonparrelli.permiso;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FeatureGatesTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+
+    @Test
+    public void isAvailable_onlyWhenAllPermissionsGranted() throws Exception {
+        FeatureGates gates = new FeatureGates();
+        gates.register("video", CAMERA, RECORD_AUDIO);
+        gates.register("photo", CAMERA);
+        assertFalse(gates.isAvailable("video"));
+        assertFalse(gates.isAvailable("photo"));
+
+        gates.onGrantState(CAMERA, true);
+        assertFalse(gates.isAvailable("video"));
+        assertTrue(gates.isAvailable("photo"));
+
+        gates.onGrantState(RECORD_AUDIO, true);
+        assertTrue(gates.isAvailable("video"));
+
+        gates.onGrantState(CAMERA, false);
+        assertFalse(gates.isAvailable("video"));
+        assertFalse(gates.isAvailable("photo"));
+    }
+
+    @Test
+    public void isAvailable_throwsForUnknownFeature() throws Exception {
+        try {
+            new FeatureGates().isAvailable("video");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void register_throwsWhenOutOfBits() throws Exception {
+        FeatureGates gates = new FeatureGates();
+        for (int i = 0; i < FeatureGates.MAX_PERMISSIONS; i++) {
+            gates.register("feature" + i, "permission" + i);
+        }
+        try {
+            gates.register("oneTooMany", "permission" + FeatureGates.MAX_PERMISSIONS);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.greysonparrelli.permiso;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    @Test
+    public void dump_containsRecordedEvents() throws Exception {
+        FlightRecorder recorder = new FlightRecorder(8);
+        recorder.record(FlightRecorder.EVENT_ACTIVE, 3);
+        recorder.record(FlightRecorder.EVENT_SYSTEM_REQUEST, 3, CAMERA, 0);
+        recorder.record(FlightRecorder.EVENT_RESULT, 3, CAMERA, Permiso.Result.PERMANENTLY_DENIED.ordinal());
+
+        String dump = dump(recorder);
+        assertTrue(dump.contains("(3 of 3)"));
+        assertTrue(dump.contains("#3 SYSTEM_REQUEST " + CAMERA));
+        assertTrue(dump.contains("#3 RESULT " + CAMERA + " PERMANENTLY_DENIED"));
+    }
+
+    @Test
+    public void dump_onlyKeepsMostRecentEvents() throws Exception {
+        FlightRecorder recorder = new FlightRecorder(4);
+        for (int i = 1; i <= 10; i++) {
+            recorder.record(FlightRecorder.EVENT_ACTIVE, i);
+        }
+
+        String dump = dump(recorder);
+        assertTrue(dump.contains("(4 of 10)"));
+        assertFalse(dump.contains("#6 "));
+        assertTrue(dump.contains("#7 "));
+        assertTrue(dump.contains("#10 "));
+        assertEquals(5, dump.split("\n").length);
+    }
+
+    private static String dump(FlightRecorder recorder) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        recorder.dump("", writer);
+        writer.flush();
+        return out.toString();
+    }
+}
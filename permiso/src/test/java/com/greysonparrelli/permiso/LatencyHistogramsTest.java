@@ -0,0 +1,62 @@
+package com.greysonparrelli.permiso;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramsTest {
+
+    @Test
+    public void snapshot_bucketsByPowerOfTwoMicros() throws Exception {
+        LatencyHistograms histograms = new LatencyHistograms();
+        histograms.record(Permiso.Phase.GRANT_CHECK, 500);
+        histograms.record(Permiso.Phase.GRANT_CHECK, 1500);
+        histograms.record(Permiso.Phase.GRANT_CHECK, 3000);
+        histograms.record(Permiso.Phase.GRANT_CHECK, 3500);
+
+        Permiso.LatencySnapshot snapshot = histograms.snapshot(false);
+        long[] buckets = snapshot.getBuckets(Permiso.Phase.GRANT_CHECK);
+        assertEquals(1, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(2, buckets[2]);
+        assertEquals(4, snapshot.getCount(Permiso.Phase.GRANT_CHECK));
+        assertEquals(8500, snapshot.getTotalNanos(Permiso.Phase.GRANT_CHECK));
+        assertEquals(3500, snapshot.getMaxNanos(Permiso.Phase.GRANT_CHECK));
+        assertEquals(2, snapshot.getPercentileMicros(Permiso.Phase.GRANT_CHECK, 50));
+        assertEquals(4, snapshot.getPercentileMicros(Permiso.Phase.GRANT_CHECK, 99));
+        assertEquals(0, snapshot.getCount(Permiso.Phase.SYSTEM_DIALOG));
+    }
+
+    @Test
+    public void snapshot_withReset_clearsHistograms() throws Exception {
+        LatencyHistograms histograms = new LatencyHistograms();
+        histograms.record(Permiso.Phase.SYSTEM_DIALOG, Long.MAX_VALUE);
+
+        Permiso.LatencySnapshot first = histograms.snapshot(true);
+        assertEquals(1, first.getBuckets(Permiso.Phase.SYSTEM_DIALOG)[LatencyHistograms.BUCKET_COUNT - 1]);
+
+        Permiso.LatencySnapshot second = histograms.snapshot(false);
+        assertArrayEquals(new long[LatencyHistograms.BUCKET_COUNT], second.getBuckets(Permiso.Phase.SYSTEM_DIALOG));
+        assertEquals(0, second.getMaxNanos(Permiso.Phase.SYSTEM_DIALOG));
+    }
+
+    @Test
+    public void writeTo_writesOneLinePerPhase() throws Exception {
+        LatencyHistograms histograms = new LatencyHistograms();
+        histograms.record(Permiso.Phase.CALLBACK_DISPATCH, 2000);
+
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        histograms.snapshot(false).writeTo(writer);
+        writer.flush();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(Permiso.Phase.values().length, lines.length);
+        assertTrue(lines[Permiso.Phase.CALLBACK_DISPATCH.ordinal()].startsWith("CALLBACK_DISPATCH,1,2,2,4,4,4,0,0,1,"));
+    }
+}
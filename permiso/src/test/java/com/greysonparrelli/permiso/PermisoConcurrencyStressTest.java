@@ -0,0 +1,263 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Hammers Permiso's shared state from many threads at once against a stub backend. These are here to catch lost
+ * results, duplicate request codes and lost updates, so they should keep passing through any concurrency work on the
+ * engine.
+ */
+public class PermisoConcurrencyStressTest {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 2000;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String READ_CALENDAR = "android.permission.READ_CALENDAR";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+
+    private static final String[][] PERMISSION_SETS = {
+            { CAMERA },
+            { READ_CONTACTS },
+            { READ_CONTACTS, READ_CALENDAR },
+            { CAMERA, READ_CONTACTS, READ_CALENDAR },
+            { RECORD_AUDIO },
+            { CAMERA, RECORD_AUDIO }
+    };
+
+    private StubPermissionBackend mBackend;
+    private Permiso mPermiso;
+
+    // Permiso only keeps weak references to these
+    private Activity mActivity;
+    private Activity mOtherActivity;
+
+    @Before
+    public void setUp() {
+        mBackend = new StubPermissionBackend();
+        mPermiso = new Permiso(mBackend);
+        mActivity = new Activity();
+        mOtherActivity = new Activity();
+        mPermiso.setActivity(mActivity);
+    }
+
+    @Test
+    public void concurrentRequestsAndResults_everyCallbackInvokedExactlyOnce() throws Exception {
+        ExecutorService callbackExecutor = Executors.newFixedThreadPool(2);
+        final ConcurrentLinkedQueue<CountingCallback> callbacks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean requestsFinished = new AtomicBoolean();
+        final Set<Integer> requestCodes = new HashSet<>();
+        final AtomicReference<String> duplicateCode = new AtomicReference<>();
+
+        Thread responder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!requestsFinished.get() || !mBackend.systemRequests.isEmpty()) {
+                    StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+                    if (request == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if (!requestCodes.add(request.requestCode)) {
+                        duplicateCode.set(String.valueOf(request.requestCode));
+                    }
+                    mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.denyAll());
+                }
+            }
+        });
+        responder.start();
+
+        runConcurrently(new RequestTask(callbacks, callbackExecutor));
+        requestsFinished.set(true);
+        responder.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertFalse("Responder never finished", responder.isAlive());
+
+        callbackExecutor.shutdown();
+        assertTrue(callbackExecutor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals("Duplicate request code: " + duplicateCode.get(), null, duplicateCode.get());
+        assertEquals(THREADS * REQUESTS_PER_THREAD, callbacks.size());
+        for (CountingCallback callback : callbacks) {
+            assertEquals(1, callback.invocations.get());
+            assertFalse(callback.lastResultSet.get().areAllPermissionsGranted());
+        }
+    }
+
+    @Test
+    public void concurrentSetActivity_requestsStillComplete() throws Exception {
+        final ConcurrentLinkedQueue<CountingCallback> callbacks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean requestsFinished = new AtomicBoolean();
+
+        Thread activitySwapper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean other = false;
+                while (!requestsFinished.get()) {
+                    mPermiso.setActivity(other ? mOtherActivity : mActivity);
+                    other = !other;
+                }
+            }
+        });
+        activitySwapper.start();
+
+        runConcurrently(new RequestTask(callbacks, null));
+        requestsFinished.set(true);
+        activitySwapper.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        StubPermissionBackend.SystemRequest request;
+        while ((request = mBackend.systemRequests.poll()) != null) {
+            mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.denyAll());
+        }
+
+        assertEquals(THREADS * REQUESTS_PER_THREAD, callbacks.size());
+        for (CountingCallback callback : callbacks) {
+            assertEquals(1, callback.invocations.get());
+        }
+    }
+
+    @Test
+    public void concurrentGrantObservations_noLostUpdates() throws Exception {
+        final List<String> permissions = new ArrayList<>();
+        for (int i = 0; i < FeatureGates.MAX_PERMISSIONS; i++) {
+            String permission = "permission" + i;
+            permissions.add(permission);
+            mPermiso.registerFeature(permission, permission);
+        }
+
+        // Every thread observes a different slice of the permissions being granted, all at once
+        mBackend.grantedPermissions.addAll(permissions);
+        runConcurrently(new ThreadTask() {
+            @Override
+            public void run(int thread) {
+                for (int i = thread; i < permissions.size(); i += THREADS) {
+                    mPermiso.checkPermissions(mActivity, permissions.get(i));
+                }
+            }
+        });
+        for (String permission : permissions) {
+            assertTrue(permission, mPermiso.isFeatureAvailable(permission));
+        }
+
+        // And then being revoked
+        mBackend.grantedPermissions.clear();
+        runConcurrently(new ThreadTask() {
+            @Override
+            public void run(int thread) {
+                for (int i = thread; i < permissions.size(); i += THREADS) {
+                    mPermiso.checkPermissions(mActivity, permissions.get(i));
+                }
+            }
+        });
+        for (String permission : permissions) {
+            assertFalse(permission, mPermiso.isFeatureAvailable(permission));
+        }
+    }
+
+
+    // =====================================================================
+    // Helpers
+    // =====================================================================
+
+    /**
+     * Runs the task on {@link #THREADS} threads, released at the same moment, and waits for all of them to finish.
+     */
+    private static void runConcurrently(final ThreadTask task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        task.run(thread);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            fail("Threads never finished");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Makes {@link #REQUESTS_PER_THREAD} requests, cycling through {@link #PERMISSION_SETS}. If given an executor, every
+     * other request has its result delivered on it.
+     */
+    private class RequestTask implements ThreadTask {
+        private final ConcurrentLinkedQueue<CountingCallback> mCallbacks;
+        private final ExecutorService mExecutor;
+
+        RequestTask(ConcurrentLinkedQueue<CountingCallback> callbacks, ExecutorService executor) {
+            mCallbacks = callbacks;
+            mExecutor = executor;
+        }
+
+        @Override
+        public void run(int thread) {
+            for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                CountingCallback callback = new CountingCallback();
+                mCallbacks.add(callback);
+                mPermiso.requestPermissions(
+                        callback,
+                        i % 2 == 0 ? mExecutor : null,
+                        PERMISSION_SETS[(thread + i) % PERMISSION_SETS.length]);
+            }
+        }
+    }
+
+    private static class CountingCallback implements Permiso.IOnPermissionResult {
+        final AtomicInteger invocations = new AtomicInteger();
+        final AtomicReference<Permiso.ResultSet> lastResultSet = new AtomicReference<>();
+
+        @Override
+        public void onPermissionResult(Permiso.ResultSet resultSet) {
+            lastResultSet.set(resultSet);
+            invocations.incrementAndGet();
+        }
+
+        @Override
+        public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+            callback.onRationaleProvided();
+        }
+    }
+}
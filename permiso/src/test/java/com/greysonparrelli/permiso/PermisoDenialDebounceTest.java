@@ -0,0 +1,163 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PermisoDenialDebounceTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+
+    private SimulatedPermissionBackend mBackend;
+    private Permiso mPermiso;
+    private Activity mActivity;
+
+    @Before
+    public void setUp() {
+        mBackend = new SimulatedPermissionBackend();
+        mPermiso = new Permiso(mBackend);
+        mBackend.attach(mPermiso);
+        mActivity = new Activity();
+        mPermiso.setActivity(mActivity);
+    }
+
+    @Test
+    public void repeatWithinWindow_noChecksOrSystemRequest() throws Exception {
+        mPermiso.setDenialDebounceWindow(60000);
+        RecordingCallback first = requestAndAnswer(CAMERA, RECORD_AUDIO);
+        int grantChecks = mBackend.getGrantChecks();
+        int rationaleChecks = mBackend.getRationaleChecks();
+
+        // Same set of permissions in a different order is still the same request
+        RecordingCallback second = request(RECORD_AUDIO, CAMERA);
+
+        assertEquals(1, second.invocations);
+        assertSame(first.resultSet, second.resultSet);
+        assertEquals(0, second.rationales);
+        assertEquals(grantChecks, mBackend.getGrantChecks());
+        assertEquals(rationaleChecks, mBackend.getRationaleChecks());
+        assertEquals(1, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void differentPermissions_notDebounced() throws Exception {
+        mPermiso.setDenialDebounceWindow(60000);
+        requestAndAnswer(CAMERA, RECORD_AUDIO);
+
+        requestAndAnswer(CAMERA);
+
+        assertEquals(2, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void afterWindow_entryExpires() throws Exception {
+        mPermiso.setDenialDebounceWindow(20);
+        requestAndAnswer(CAMERA);
+
+        mBackend.advanceBy(20);
+        RecordingCallback stillDebounced = request(CAMERA);
+        assertEquals(1, stillDebounced.invocations);
+        assertEquals(1, mBackend.getSystemRequests());
+
+        mBackend.advanceBy(1);
+        RecordingCallback second = requestAndAnswer(CAMERA);
+
+        assertEquals(1, second.invocations);
+        assertEquals(1, second.rationales);
+        assertEquals(2, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void permissionSeenGranted_entryDropped() throws Exception {
+        mPermiso.setDenialDebounceWindow(60000);
+        requestAndAnswer(CAMERA, RECORD_AUDIO);
+
+        // Granted from the system settings, then noticed by a check
+        mBackend.grant(CAMERA);
+        mPermiso.checkPermissions(mActivity, CAMERA);
+        int grantChecks = mBackend.getGrantChecks();
+        RecordingCallback second = requestAndAnswer(CAMERA, RECORD_AUDIO);
+
+        assertTrue(mBackend.getGrantChecks() > grantChecks);
+        assertTrue(second.resultSet.isPermissionGranted(CAMERA));
+        assertEquals(2, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void cancelledRequest_notDebounced() throws Exception {
+        mPermiso.setDenialDebounceWindow(60000);
+        RecordingCallback first = request(CAMERA);
+        mBackend.cancelPendingDialogs();
+        assertEquals(1, first.invocations);
+        assertFalse(first.resultSet.isPermissionGranted(CAMERA));
+
+        // The user was never asked, so asking again goes to the system
+        requestAndAnswer(CAMERA);
+
+        assertEquals(2, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void zeroWindow_turnsDebounceOff() throws Exception {
+        mPermiso.setDenialDebounceWindow(60000);
+        requestAndAnswer(CAMERA);
+
+        // Also forgets anything that was already remembered
+        mPermiso.setDenialDebounceWindow(0);
+        requestAndAnswer(CAMERA);
+        requestAndAnswer(CAMERA);
+
+        assertEquals(3, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void byDefault_notDebounced() throws Exception {
+        requestAndAnswer(CAMERA);
+        requestAndAnswer(CAMERA);
+
+        assertEquals(2, mBackend.getSystemRequests());
+    }
+
+
+    // =====================================================================
+    // Helpers
+    // =====================================================================
+
+    private RecordingCallback request(String... permissions) {
+        RecordingCallback callback = new RecordingCallback();
+        mPermiso.requestPermissions(callback, permissions);
+        return callback;
+    }
+
+    private RecordingCallback requestAndAnswer(String... permissions) {
+        RecordingCallback callback = request(permissions);
+        mBackend.runUntilIdle();
+        assertEquals(1, callback.invocations);
+        return callback;
+    }
+
+    private static class RecordingCallback implements Permiso.IOnPermissionResult {
+        int invocations;
+        int rationales;
+        Permiso.ResultSet resultSet;
+
+        @Override
+        public void onPermissionResult(Permiso.ResultSet resultSet) {
+            this.resultSet = resultSet;
+            invocations++;
+        }
+
+        @Override
+        public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+            rationales++;
+            callback.onRationaleProvided();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermisoRequestPlanTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+
+    private SimulatedPermissionBackend mBackend;
+    private Permiso mPermiso;
+    private Activity mActivity;
+    private int mRationalePrompts;
+
+    @Before
+    public void setUp() {
+        mBackend = new SimulatedPermissionBackend();
+        mPermiso = new Permiso(mBackend);
+        mBackend.attach(mPermiso);
+        mActivity = new Activity();
+        mPermiso.setActivity(mActivity);
+    }
+
+    @Test
+    public void plan_predictsWhatTheRequestDoes() throws Exception {
+        mBackend.grant(CAMERA);
+        request(READ_CONTACTS);
+        mBackend.runUntilIdle();
+        String eventsBefore = dump();
+        int systemRequestsBefore = mBackend.getSystemRequests();
+
+        Permiso.RequestPlan plan = mPermiso.plan(CAMERA, READ_CONTACTS, RECORD_AUDIO);
+        assertArrayEquals(new String[] { CAMERA }, plan.getAlreadyGranted());
+        assertEquals(2, plan.getUngranted().length);
+        assertArrayEquals(new String[] { READ_CONTACTS }, plan.getRationalePermissions());
+        assertFalse(plan.isDebounced());
+        assertFalse(plan.isLinked());
+        assertEquals(3, plan.getPredictedGrantChecks());
+        assertEquals(2, plan.getPredictedRationaleChecks());
+        assertEquals(1, plan.getPredictedSystemRequests());
+        assertEquals(1, plan.getPredictedRationalePrompts());
+        assertEquals(2, plan.getPredictedSystemDialogs());
+
+        // Planning didn't do anything
+        assertEquals(systemRequestsBefore, mBackend.getSystemRequests());
+        assertEquals(eventsBefore, dump());
+
+        // And the real request does what was planned
+        int grantChecksBefore = mBackend.getGrantChecks();
+        int rationaleChecksBefore = mBackend.getRationaleChecks();
+        request(CAMERA, READ_CONTACTS, RECORD_AUDIO);
+        assertEquals(plan.getPredictedGrantChecks(), mBackend.getGrantChecks() - grantChecksBefore);
+        assertEquals(plan.getPredictedRationaleChecks(), mBackend.getRationaleChecks() - rationaleChecksBefore);
+        assertEquals(plan.getPredictedSystemRequests(), mBackend.getSystemRequests() - systemRequestsBefore);
+        assertEquals(plan.getPredictedRationalePrompts(), mRationalePrompts);
+    }
+
+    @Test
+    public void plan_activeRequest_isLinked() throws Exception {
+        request(CAMERA, RECORD_AUDIO);
+
+        Permiso.RequestPlan plan = mPermiso.plan(CAMERA);
+        assertTrue(plan.isLinked());
+        assertEquals(0, plan.getPredictedSystemRequests());
+        assertEquals(0, plan.getPredictedSystemDialogs());
+    }
+
+    @Test
+    public void plan_recentDenial_isDebounced() throws Exception {
+        mPermiso.setDenialDebounceWindow(60000);
+        request(CAMERA);
+        mBackend.runUntilIdle();
+
+        Permiso.RequestPlan plan = mPermiso.plan(CAMERA);
+        assertTrue(plan.isDebounced());
+        assertEquals(0, plan.getPredictedGrantChecks());
+        assertEquals(0, plan.getPredictedSystemRequests());
+    }
+
+    @Test
+    public void plan_allGranted_needsNothing() throws Exception {
+        mBackend.grant(CAMERA);
+
+        Permiso.RequestPlan plan = mPermiso.plan(CAMERA);
+        assertArrayEquals(new String[] { CAMERA }, plan.getAlreadyGranted());
+        assertEquals(0, plan.getUngranted().length);
+        assertEquals(1, plan.getPredictedGrantChecks());
+        assertEquals(0, plan.getPredictedSystemRequests());
+    }
+
+    private void request(String... permissions) {
+        mPermiso.requestPermissions(new Permiso.IOnPermissionResult() {
+            @Override
+            public void onPermissionResult(Permiso.ResultSet resultSet) {
+            }
+
+            @Override
+            public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+                mRationalePrompts++;
+                callback.onRationaleProvided();
+            }
+        }, permissions);
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        mPermiso.dump("", writer);
+        writer.flush();
+        // Timestamps are relative to the dump, so leave them out
+        return out.toString().replaceAll(" *-?[0-9.]+ms", "");
+    }
+}
@@ -0,0 +1,150 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PermisoStagedRequestTest {
+
+    private static final String FINE_LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+    private static final String BACKGROUND_LOCATION = "android.permission.ACCESS_BACKGROUND_LOCATION";
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+
+    private StubPermissionBackend mBackend;
+    private Permiso mPermiso;
+    private Activity mActivity;
+    private AtomicReference<Permiso.ResultSet> mResult;
+
+    @Before
+    public void setUp() {
+        mBackend = new StubPermissionBackend();
+        mPermiso = new Permiso(mBackend);
+        mActivity = new Activity();
+        mPermiso.setActivity(mActivity);
+        mResult = new AtomicReference<>();
+    }
+
+    @Test
+    public void dependentStages_requestedInOrder() throws Exception {
+        requestLocationStages();
+
+        StubPermissionBackend.SystemRequest first = mBackend.systemRequests.poll();
+        assertArrayEquals(new String[] { FINE_LOCATION }, first.permissions);
+        mPermiso.onRequestPermissionResult(first.requestCode, first.permissions, first.grantAll());
+        assertNull(mResult.get());
+
+        StubPermissionBackend.SystemRequest second = mBackend.systemRequests.poll();
+        assertArrayEquals(new String[] { BACKGROUND_LOCATION }, second.permissions);
+        mPermiso.onRequestPermissionResult(second.requestCode, second.permissions, second.denyAll());
+
+        assertTrue(mResult.get().isPermissionGranted(FINE_LOCATION));
+        assertFalse(mResult.get().isPermissionGranted(BACKGROUND_LOCATION));
+        assertTrue(mBackend.systemRequests.isEmpty());
+    }
+
+    @Test
+    public void deniedPrerequisite_skipsStage() throws Exception {
+        requestLocationStages();
+
+        StubPermissionBackend.SystemRequest first = mBackend.systemRequests.poll();
+        mPermiso.onRequestPermissionResult(first.requestCode, first.permissions, first.denyAll());
+
+        assertTrue(mBackend.systemRequests.isEmpty());
+        assertFalse(mResult.get().isPermissionGranted(FINE_LOCATION));
+        assertFalse(mResult.get().isPermissionGranted(BACKGROUND_LOCATION));
+    }
+
+    @Test
+    public void grantedPrerequisite_skipsStraightToDependentStage() throws Exception {
+        mBackend.grantedPermissions.add(FINE_LOCATION);
+        requestLocationStages();
+
+        StubPermissionBackend.SystemRequest first = mBackend.systemRequests.poll();
+        assertArrayEquals(new String[] { BACKGROUND_LOCATION }, first.permissions);
+        mPermiso.onRequestPermissionResult(first.requestCode, first.permissions, first.grantAll());
+
+        assertTrue(mResult.get().areAllPermissionsGranted());
+    }
+
+    @Test
+    public void independentStages_requestedTogether() throws Exception {
+        mPermiso.requestPermissionsInStages(new ResultCallback(), new Permiso.Stage(CAMERA), new Permiso.Stage(RECORD_AUDIO));
+
+        StubPermissionBackend.SystemRequest first = mBackend.systemRequests.poll();
+        assertEquals(new HashSet<>(Arrays.asList(CAMERA, RECORD_AUDIO)), new HashSet<>(Arrays.asList(first.permissions)));
+        mPermiso.onRequestPermissionResult(first.requestCode, first.permissions, first.grantAll());
+
+        assertTrue(mBackend.systemRequests.isEmpty());
+        assertTrue(mResult.get().areAllPermissionsGranted());
+        assertEquals(2, mResult.get().asMap().size());
+    }
+
+    @Test
+    public void prerequisiteRequestedLater_throws() throws Exception {
+        try {
+            mPermiso.requestPermissionsInStages(
+                    new ResultCallback(),
+                    new Permiso.Stage(BACKGROUND_LOCATION).setPrerequisites(FINE_LOCATION),
+                    new Permiso.Stage(FINE_LOCATION));
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        assertTrue(mBackend.systemRequests.isEmpty());
+    }
+
+    @Test
+    public void prerequisiteRequestedInSameStage_throws() throws Exception {
+        try {
+            mPermiso.requestPermissionsInStages(
+                    new ResultCallback(),
+                    new Permiso.Stage(FINE_LOCATION, BACKGROUND_LOCATION).setPrerequisites(FINE_LOCATION));
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void prerequisiteNeverRequested_expectedGranted() throws Exception {
+        mBackend.grantedPermissions.add(FINE_LOCATION);
+        mPermiso.requestPermissionsInStages(
+                new ResultCallback(),
+                new Permiso.Stage(BACKGROUND_LOCATION).setPrerequisites(FINE_LOCATION));
+
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+        assertArrayEquals(new String[] { BACKGROUND_LOCATION }, request.permissions);
+    }
+
+    private void requestLocationStages() {
+        mPermiso.requestPermissionsInStages(
+                new ResultCallback(),
+                new Permiso.Stage(FINE_LOCATION),
+                new Permiso.Stage(BACKGROUND_LOCATION).setPrerequisites(FINE_LOCATION));
+    }
+
+    private class ResultCallback implements Permiso.IOnPermissionResult {
+        @Override
+        public void onPermissionResult(Permiso.ResultSet resultSet) {
+            mResult.set(resultSet);
+        }
+
+        @Override
+        public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+            callback.onRationaleProvided();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how many requests per second the engine gets through when replaying a {@link TraceReplay}. Only reports the
+ * number, and never fails on it, since it depends on the machine. Skipped unless asked for, with:
+ * <pre>
+ * ./gradlew :permiso:testDebugUnitTest -Pbenchmark --tests '*PermisoTraceReplayBenchmark' -i
+ * </pre>
+ */
+public class PermisoTraceReplayBenchmark {
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    // Permiso only keeps a weak reference to this
+    private Activity mActivity;
+
+    @Test
+    public void replayTrace_requestsPerSecond() throws Exception {
+        assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("permiso.benchmark"));
+        TraceReplay trace = new TraceReplay();
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            replay(trace);
+        }
+
+        double[] requestsPerSecond = new double[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long elapsedNanos = replay(trace);
+            requestsPerSecond[i] = TraceReplay.REQUESTS / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+        Arrays.sort(requestsPerSecond);
+
+        System.out.println(String.format("Replayed %d requests: median %.0f requests/s (min %.0f, max %.0f)",
+                TraceReplay.REQUESTS,
+                requestsPerSecond[MEASURED_RUNS / 2],
+                requestsPerSecond[0],
+                requestsPerSecond[MEASURED_RUNS - 1]));
+    }
+
+
+    // =====================================================================
+    // Helpers
+    // =====================================================================
+
+    /**
+     * @return How long the replay took, in nanoseconds.
+     */
+    private long replay(TraceReplay trace) {
+        SimulatedPermissionBackend backend = new SimulatedPermissionBackend();
+        Permiso permiso = new Permiso(backend);
+        backend.attach(permiso);
+        mActivity = new Activity();
+        permiso.setActivity(mActivity);
+
+        long start = System.nanoTime();
+        int requests = trace.replay(permiso, backend).size();
+        long elapsedNanos = System.nanoTime() - start;
+
+        assertEquals(TraceReplay.REQUESTS, requests);
+        return elapsedNanos;
+    }
+}
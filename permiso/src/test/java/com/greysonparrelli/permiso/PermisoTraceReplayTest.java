@@ -0,0 +1,118 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the engine with a {@link SimulatedPermissionBackend}: first through scripted user behavior, then by replaying a
+ * production-sized {@link TraceReplay} to make sure the engine stays correct at volume. How fast it gets through the
+ * trace is measured separately, by {@link PermisoTraceReplayBenchmark}.
+ */
+public class PermisoTraceReplayTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+
+    private SimulatedPermissionBackend mBackend;
+    private Permiso mPermiso;
+
+    // Permiso only keeps a weak reference to this
+    private Activity mActivity;
+
+    @Before
+    public void setUp() {
+        mBackend = new SimulatedPermissionBackend();
+        mPermiso = new Permiso(mBackend);
+        mBackend.attach(mPermiso);
+        mActivity = new Activity();
+        mPermiso.setActivity(mActivity);
+    }
+
+    @Test
+    public void deniedThenDontAskAgain_becomesPermanentlyDenied() throws Exception {
+        mBackend.script(CAMERA, SimulatedPermissionBackend.Response.DENY,
+                SimulatedPermissionBackend.Response.DENY_AND_DONT_ASK_AGAIN);
+
+        RecordingCallback first = request(CAMERA);
+        mBackend.runUntilIdle();
+        assertEquals(Permiso.Result.DENIED, first.resultSet.toMap().get(CAMERA));
+        assertEquals(0, first.rationales);
+
+        RecordingCallback second = request(CAMERA);
+        mBackend.runUntilIdle();
+        assertEquals(Permiso.Result.PERMANENTLY_DENIED, second.resultSet.toMap().get(CAMERA));
+        assertEquals(1, second.rationales);
+
+        // With "Don't Ask Again", the system answers without showing anything
+        RecordingCallback third = request(CAMERA);
+        mBackend.runUntilIdle();
+        assertEquals(Permiso.Result.PERMANENTLY_DENIED, third.resultSet.toMap().get(CAMERA));
+        assertEquals(2, mBackend.getDialogsShown());
+        assertEquals(3, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void delayedDialog_mergesRequestsMadeWhileOpen() throws Exception {
+        mBackend.setDialogDelay(1000).setDefaultResponse(SimulatedPermissionBackend.Response.GRANT);
+
+        RecordingCallback first = request(CAMERA, RECORD_AUDIO);
+        mBackend.advanceBy(500);
+        RecordingCallback second = request(CAMERA);
+        assertEquals(0, first.invocations);
+        assertEquals(0, second.invocations);
+
+        mBackend.advanceBy(500);
+        assertEquals(1, first.invocations);
+        assertEquals(1, second.invocations);
+        assertTrue(second.resultSet.areAllPermissionsGranted());
+        assertEquals(1, mBackend.getSystemRequests());
+    }
+
+    @Test
+    public void replayTrace_everyCallbackInvokedOnce() throws Exception {
+        List<TraceReplay.CountingCallback> callbacks = new TraceReplay().replay(mPermiso, mBackend);
+
+        assertEquals(TraceReplay.REQUESTS, callbacks.size());
+        for (TraceReplay.CountingCallback callback : callbacks) {
+            assertEquals(1, callback.invocations);
+        }
+        assertEquals(0, mBackend.getPendingDialogs());
+        assertTrue(mBackend.getSystemRequests() < TraceReplay.REQUESTS);
+    }
+
+
+    // =====================================================================
+    // Helpers
+    // =====================================================================
+
+    private RecordingCallback request(String... permissions) {
+        RecordingCallback callback = new RecordingCallback();
+        mPermiso.requestPermissions(callback, permissions);
+        return callback;
+    }
+
+    private static class RecordingCallback implements Permiso.IOnPermissionResult {
+        int invocations;
+        int rationales;
+        Permiso.ResultSet resultSet;
+
+        @Override
+        public void onPermissionResult(Permiso.ResultSet resultSet) {
+            this.resultSet = resultSet;
+            invocations++;
+        }
+
+        @Override
+        public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+            rationales++;
+            callback.onRationaleProvided();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PermisoTrampolineTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    private StubPermissionBackend mBackend;
+    private Permiso mPermiso;
+    private Context mContext;
+    private AtomicReference<Permiso.ResultSet> mResult;
+
+    @Before
+    public void setUp() {
+        mBackend = new StubPermissionBackend();
+        mPermiso = new Permiso(mBackend);
+        mContext = new Activity();
+        mResult = new AtomicReference<>();
+    }
+
+    @Test
+    public void noActivity_requestWaitsForTrampoline() throws Exception {
+        request();
+        assertTrue(mBackend.systemRequests.isEmpty());
+        assertEquals(1, mBackend.trampolineStarts.get());
+
+        CountingTrampoline trampoline = new CountingTrampoline();
+        mPermiso.onTrampolineCreated(trampoline);
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+        assertArrayEquals(new String[] { CAMERA }, request.permissions);
+        assertEquals(0, trampoline.finishes);
+
+        mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.grantAll());
+        assertTrue(mResult.get().areAllPermissionsGranted());
+        assertEquals(1, trampoline.finishes);
+    }
+
+    @Test
+    public void noActivity_allGranted_answeredWithoutTrampoline() throws Exception {
+        mBackend.grantedPermissions.add(CAMERA);
+        request();
+        assertTrue(mResult.get().areAllPermissionsGranted());
+        assertTrue(mBackend.systemRequests.isEmpty());
+        assertEquals(0, mBackend.trampolineStarts.get());
+    }
+
+    @Test
+    public void noActivity_recentDenial_answeredWithoutTrampoline() throws Exception {
+        mPermiso.setDenialDebounceWindow(60000);
+        request();
+        CountingTrampoline trampoline = new CountingTrampoline();
+        mPermiso.onTrampolineCreated(trampoline);
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+        mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.denyAll());
+        mBackend.finishingActivities.add(trampoline);
+        mResult.set(null);
+
+        request();
+        assertFalse(mResult.get().areAllPermissionsGranted());
+        assertEquals(1, mBackend.trampolineStarts.get());
+    }
+
+    @Test
+    public void noActivity_planOnlyUsesTrampolineWhenAsking() throws Exception {
+        assertTrue(mPermiso.plan(mContext, CAMERA).usesTrampoline());
+        mBackend.grantedPermissions.add(CAMERA);
+        assertFalse(mPermiso.plan(mContext, CAMERA).usesTrampoline());
+        assertEquals(0, mBackend.trampolineStarts.get());
+    }
+
+    @Test
+    public void trampolineNeverStarts_queuedRequestsMadeFromNextActivity() throws Exception {
+        final AtomicReference<Permiso.ResultSet> otherResult = new AtomicReference<>();
+        request();
+        mPermiso.requestPermissions(mContext, new Permiso.IOnPermissionResult() {
+            @Override
+            public void onPermissionResult(Permiso.ResultSet resultSet) {
+                otherResult.set(resultSet);
+            }
+
+            @Override
+            public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+                callback.onRationaleProvided();
+            }
+        }, CAMERA);
+        assertEquals(1, mBackend.trampolineStarts.get());
+
+        // The trampoline was blocked, but the user opens the app
+        mPermiso.setActivity(new Activity());
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+        assertArrayEquals(new String[] { CAMERA }, request.permissions);
+        assertTrue(mBackend.systemRequests.isEmpty());
+
+        mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.grantAll());
+        assertTrue(mResult.get().areAllPermissionsGranted());
+        assertTrue(otherResult.get().areAllPermissionsGranted());
+
+        // Nothing left waiting for a trampoline, so a late one finishes right away
+        CountingTrampoline trampoline = new CountingTrampoline();
+        mPermiso.onTrampolineCreated(trampoline);
+        assertEquals(1, trampoline.finishes);
+    }
+
+    @Test
+    public void trampolineBlocked_startedAgainAfterTimeout() throws Exception {
+        request();
+        mBackend.uptimeMillis += 1000;
+        request();
+        assertEquals(1, mBackend.trampolineStarts.get());
+
+        mBackend.uptimeMillis += 10000;
+        request();
+        assertEquals(2, mBackend.trampolineStarts.get());
+
+        // Every request is made once a trampoline finally shows up
+        CountingTrampoline trampoline = new CountingTrampoline();
+        mPermiso.onTrampolineCreated(trampoline);
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+        assertTrue(mBackend.systemRequests.isEmpty());
+        mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.denyAll());
+        assertFalse(mResult.get().areAllPermissionsGranted());
+        assertEquals(1, trampoline.finishes);
+    }
+
+    @Test
+    public void secondTrampoline_finishesRightAway() throws Exception {
+        request();
+        CountingTrampoline first = new CountingTrampoline();
+        mPermiso.onTrampolineCreated(first);
+
+        CountingTrampoline second = new CountingTrampoline();
+        mPermiso.onTrampolineCreated(second);
+        assertEquals(1, second.finishes);
+        assertEquals(0, first.finishes);
+
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+        mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.grantAll());
+        assertEquals(1, first.finishes);
+    }
+
+    @Test
+    public void stoppedActivity_usesTrampoline() throws Exception {
+        Activity activity = new Activity();
+        mPermiso.setActivity(activity);
+        mPermiso.onActivityStopped(activity);
+
+        // Still set, but in the back stack, so the request mustn't go to it
+        request();
+        assertTrue(mBackend.systemRequests.isEmpty());
+        assertEquals(1, mBackend.trampolineStarts.get());
+
+        CountingTrampoline trampoline = new CountingTrampoline();
+        mPermiso.onTrampolineCreated(trampoline);
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+        mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.grantAll());
+        assertTrue(mResult.get().areAllPermissionsGranted());
+        assertEquals(1, trampoline.finishes);
+    }
+
+    @Test
+    public void resumedActivity_usedAgain() throws Exception {
+        Activity activity = new Activity();
+        mPermiso.setActivity(activity);
+        mPermiso.onActivityStopped(activity);
+        mPermiso.setActivity(activity);
+
+        request();
+        assertEquals(0, mBackend.trampolineStarts.get());
+        assertEquals(1, mBackend.systemRequests.size());
+    }
+
+    @Test
+    public void otherActivityStopped_currentActivityStillUsed() throws Exception {
+        Activity previous = new Activity();
+        Activity current = new Activity();
+        mPermiso.setActivity(previous);
+        mPermiso.setActivity(current);
+        // Going from one activity to the next, the previous one is stopped after the next one is resumed
+        mPermiso.onActivityStopped(previous);
+
+        request();
+        assertEquals(0, mBackend.trampolineStarts.get());
+        assertEquals(1, mBackend.systemRequests.size());
+    }
+
+    @Test
+    public void stoppedActivity_stillReceivesResults() throws Exception {
+        Activity activity = new Activity();
+        mPermiso.setActivity(activity);
+        request();
+        StubPermissionBackend.SystemRequest request = mBackend.systemRequests.poll();
+
+        mPermiso.onActivityStopped(activity);
+        mPermiso.onRequestPermissionResult(request.requestCode, request.permissions, request.grantAll());
+        assertTrue(mResult.get().areAllPermissionsGranted());
+        assertEquals(0, mBackend.trampolineStarts.get());
+    }
+
+    @Test
+    public void noActivity_requestWithoutContext_stillThrows() throws Exception {
+        // Only requestPermissions(Context, ...) falls back to the trampoline, even once it's been used
+        request();
+        try {
+            mPermiso.requestPermissions(new Permiso.IOnPermissionResult() {
+                @Override
+                public void onPermissionResult(Permiso.ResultSet resultSet) {
+                }
+
+                @Override
+                public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+                }
+            }, CAMERA);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void activitySet_noTrampolineNeeded() throws Exception {
+        mPermiso.setActivity(new Activity());
+        request();
+        assertEquals(1, mBackend.systemRequests.size());
+        assertEquals(0, mBackend.trampolineStarts.get());
+    }
+
+    @Test
+    public void activityFinishing_usesTrampoline() throws Exception {
+        Activity activity = new Activity();
+        mPermiso.setActivity(activity);
+        mBackend.finishingActivities.add(activity);
+        request();
+        assertTrue(mBackend.systemRequests.isEmpty());
+        assertEquals(1, mBackend.trampolineStarts.get());
+    }
+
+    private void request() {
+        mPermiso.requestPermissions(mContext, new Permiso.IOnPermissionResult() {
+            @Override
+            public void onPermissionResult(Permiso.ResultSet resultSet) {
+                mResult.set(resultSet);
+            }
+
+            @Override
+            public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+                callback.onRationaleProvided();
+            }
+        }, CAMERA);
+    }
+
+    private static class CountingTrampoline extends PermisoTrampolineActivity {
+        int finishes;
+
+        @Override
+        public void finish() {
+            finishes++;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionCapabilitiesTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String INTERNET = "android.permission.INTERNET";
+    private static final String POST_NOTIFICATIONS = "android.permission.POST_NOTIFICATIONS";
+    private static final String READ_EXTERNAL_STORAGE = "android.permission.READ_EXTERNAL_STORAGE";
+    private static final String WRITE_EXTERNAL_STORAGE = "android.permission.WRITE_EXTERNAL_STORAGE";
+
+    private StubPermissionBackend mBackend;
+
+    @Before
+    public void setUp() {
+        mBackend = new StubPermissionBackend();
+        mBackend.requestedPermissions = new String[] { CAMERA, INTERNET, POST_NOTIFICATIONS };
+    }
+
+    @Test
+    public void of_belowApi23_declaredPermissionsAreInstallTime() throws Exception {
+        mBackend.sdkInt = 22;
+        PermissionCapabilities capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.INSTALL_TIME, capabilities.of(null, CAMERA));
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, "android.permission.READ_SMS"));
+    }
+
+    @Test
+    public void of_dependsOnApiLevel() throws Exception {
+        mBackend.sdkInt = 30;
+        PermissionCapabilities capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, CAMERA));
+        assertEquals(PermissionCapabilities.Capability.INSTALL_TIME, capabilities.of(null, INTERNET));
+        assertEquals(PermissionCapabilities.Capability.INSTALL_TIME, capabilities.of(null, POST_NOTIFICATIONS));
+
+        mBackend.sdkInt = 33;
+        capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, POST_NOTIFICATIONS));
+    }
+
+    @Test
+    public void of_undeclaredStoragePermission_notApplicableOnceItNoLongerControlsAccess() throws Exception {
+        mBackend.sdkInt = 30;
+        PermissionCapabilities capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.NOT_APPLICABLE, capabilities.of(null, WRITE_EXTERNAL_STORAGE));
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, READ_EXTERNAL_STORAGE));
+
+        mBackend.sdkInt = 33;
+        capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.NOT_APPLICABLE, capabilities.of(null, READ_EXTERNAL_STORAGE));
+    }
+
+    @Test
+    public void of_undeclaredStoragePermission_runtimeWhileItStillControlsAccess() throws Exception {
+        // Most likely forgotten in the manifest, so let the system have its say
+        for (int sdkInt : new int[] { 23, 28, 29 }) {
+            mBackend.sdkInt = sdkInt;
+            PermissionCapabilities capabilities = new PermissionCapabilities(mBackend);
+            assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, WRITE_EXTERNAL_STORAGE));
+            assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, READ_EXTERNAL_STORAGE));
+        }
+    }
+
+    @Test
+    public void of_undeclaredStoragePermission_runtimeWhileAppTargetsOlderRelease() throws Exception {
+        // Storage access is still controlled by READ_EXTERNAL_STORAGE for apps targeting 32
+        mBackend.sdkInt = 33;
+        mBackend.targetSdkInt = 32;
+        PermissionCapabilities capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, READ_EXTERNAL_STORAGE));
+        assertEquals(PermissionCapabilities.Capability.NOT_APPLICABLE, capabilities.of(null, WRITE_EXTERNAL_STORAGE));
+
+        // Scoped storage isn't enforced for apps targeting 29
+        mBackend.sdkInt = 30;
+        mBackend.targetSdkInt = 29;
+        capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, WRITE_EXTERNAL_STORAGE));
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, READ_EXTERNAL_STORAGE));
+
+        mBackend.targetSdkInt = 30;
+        capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.NOT_APPLICABLE, capabilities.of(null, WRITE_EXTERNAL_STORAGE));
+    }
+
+    @Test
+    public void of_unknownDeclaredPermissions_everythingIsRuntime() throws Exception {
+        mBackend.requestedPermissions = null;
+        mBackend.sdkInt = 22;
+        PermissionCapabilities capabilities = new PermissionCapabilities(mBackend);
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, INTERNET));
+        assertEquals(PermissionCapabilities.Capability.RUNTIME, capabilities.of(null, WRITE_EXTERNAL_STORAGE));
+    }
+
+    @Test
+    public void requestPermissions_nonRuntimePermissionsNeverReachTheSystem() throws Exception {
+        mBackend.sdkInt = 30;
+        Permiso permiso = new Permiso(mBackend);
+        permiso.setActivity(new Activity());
+        final Permiso.ResultSet[] result = new Permiso.ResultSet[1];
+        permiso.requestPermissions(new Permiso.IOnPermissionResult() {
+            @Override
+            public void onPermissionResult(Permiso.ResultSet resultSet) {
+                result[0] = resultSet;
+            }
+
+            @Override
+            public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+                callback.onRationaleProvided();
+            }
+        }, INTERNET, WRITE_EXTERNAL_STORAGE);
+
+        assertEquals(0, mBackend.systemRequests.size());
+        assertTrue(result[0].areAllPermissionsGranted());
+    }
+}
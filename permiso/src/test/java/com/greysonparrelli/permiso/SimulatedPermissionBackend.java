@@ -0,0 +1,327 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * An in-memory {@link PermissionBackend} that simulates a device and its user, so the engine can be driven headlessly
+ * at full speed. It models:
+ * <ul>
+ *     <li>Grants, denials, and "Don't Ask Again", scripted per permission or with a default response.</li>
+ *     <li>Rationales, which the system recommends once a permission has been denied, until "Don't Ask Again".</li>
+ *     <li>Dialogs that take a while to answer, on a virtual clock that only moves when you call
+ *     {@link #advanceBy(long)}, or that are cancelled without an answer.</li>
+ *     <li>Permissions being granted or revoked in the system settings.</li>
+ * </ul>
+ * It also counts every call the engine makes, so tests can check how much work a flow costs.
+ * <p>
+ * Not thread-safe: drive it and the engine from a single thread.
+ */
+class SimulatedPermissionBackend implements PermissionBackend {
+
+    /**
+     * What the simulated user does when shown a permission dialog.
+     */
+    enum Response {
+        GRANT,
+        DENY,
+        DENY_AND_DONT_ASK_AGAIN
+    }
+
+    private final Set<String> mGranted = new HashSet<>();
+    private final Set<String> mDenied = new HashSet<>();
+    private final Set<String> mDontAskAgain = new HashSet<>();
+    private final Map<String, Queue<Response>> mScripts = new HashMap<>();
+    private final PriorityQueue<PendingDialog> mPendingDialogs = new PriorityQueue<>();
+
+    private Permiso mPermiso;
+    private Response mDefaultResponse = Response.DENY;
+    private long mDialogDelayMillis;
+    private long mNowMillis;
+    private long mNextSequence;
+    private int mSdkInt = 26;
+    // Build.VERSION_CODES.CUR_DEVELOPMENT, so that only the device's API level matters unless set
+    private int mTargetSdkInt = 10000;
+    private String[] mRequestedPermissions;
+
+    private int mGrantChecks;
+    private int mRationaleChecks;
+    private int mSystemRequests;
+    private int mDialogsShown;
+    private int mTrampolineStarts;
+
+    /**
+     * Sets the engine that dialog results are delivered to. Needs to be called before any request is made.
+     */
+    SimulatedPermissionBackend attach(Permiso permiso) {
+        mPermiso = permiso;
+        return this;
+    }
+
+    /**
+     * Sets what the user does for permissions that have nothing scripted. Defaults to {@link Response#DENY}.
+     */
+    SimulatedPermissionBackend setDefaultResponse(Response response) {
+        mDefaultResponse = response;
+        return this;
+    }
+
+    /**
+     * Queues up what the user does the next times they're shown a dialog for a permission, in order. Once the script
+     * runs out, the default response is used.
+     */
+    SimulatedPermissionBackend script(String permission, Response... responses) {
+        Queue<Response> script = mScripts.get(permission);
+        if (script == null) {
+            script = new ArrayDeque<>();
+            mScripts.put(permission, script);
+        }
+        for (Response response : responses) {
+            script.add(response);
+        }
+        return this;
+    }
+
+    /**
+     * Sets how long, in virtual milliseconds, the user takes to answer a dialog. Like the real system, dialogs are never
+     * answered during the request itself, so even with no delay (the default) they're only answered on the next
+     * {@link #advanceBy(long)} or {@link #runUntilIdle()}.
+     */
+    SimulatedPermissionBackend setDialogDelay(long millis) {
+        mDialogDelayMillis = millis;
+        return this;
+    }
+
+    SimulatedPermissionBackend setSdkInt(int sdkInt) {
+        mSdkInt = sdkInt;
+        return this;
+    }
+
+    SimulatedPermissionBackend setTargetSdkInt(int targetSdkInt) {
+        mTargetSdkInt = targetSdkInt;
+        return this;
+    }
+
+    SimulatedPermissionBackend setRequestedPermissions(String... permissions) {
+        mRequestedPermissions = permissions;
+        return this;
+    }
+
+    /**
+     * Grants a permission, as if from the system settings.
+     */
+    void grant(String permission) {
+        mGranted.add(permission);
+    }
+
+    /**
+     * Revokes a permission, as if from the system settings. This also resets "Don't Ask Again".
+     */
+    void revoke(String permission) {
+        mGranted.remove(permission);
+        mDontAskAgain.remove(permission);
+    }
+
+    boolean isGranted(String permission) {
+        return mGranted.contains(permission);
+    }
+
+    long now() {
+        return mNowMillis;
+    }
+
+    /**
+     * Moves the virtual clock forward, answering every dialog that's due along the way, oldest first.
+     */
+    void advanceBy(long millis) {
+        long target = mNowMillis + millis;
+        while (!mPendingDialogs.isEmpty() && mPendingDialogs.peek().dueMillis <= target) {
+            PendingDialog dialog = mPendingDialogs.poll();
+            mNowMillis = Math.max(mNowMillis, dialog.dueMillis);
+            answer(dialog);
+        }
+        mNowMillis = target;
+    }
+
+    /**
+     * Answers every open dialog, including ones opened while answering, moving the clock as far as needed.
+     */
+    void runUntilIdle() {
+        while (!mPendingDialogs.isEmpty()) {
+            advanceBy(Math.max(0, mPendingDialogs.peek().dueMillis - mNowMillis));
+        }
+    }
+
+    /**
+     * Cancels every open dialog, as the system does when a request is interrupted: the results come back empty.
+     */
+    void cancelPendingDialogs() {
+        while (!mPendingDialogs.isEmpty()) {
+            mPermiso.onRequestPermissionResult(mPendingDialogs.poll().requestCode, new String[0], new int[0]);
+        }
+    }
+
+    int getPendingDialogs() {
+        return mPendingDialogs.size();
+    }
+
+    /**
+     * @return The number of times the engine asked whether a permission is granted.
+     */
+    int getGrantChecks() {
+        return mGrantChecks;
+    }
+
+    /**
+     * @return The number of times the engine asked whether to show a rationale.
+     */
+    int getRationaleChecks() {
+        return mRationaleChecks;
+    }
+
+    /**
+     * @return The number of times the engine asked the system to request permissions.
+     */
+    int getSystemRequests() {
+        return mSystemRequests;
+    }
+
+    /**
+     * @return The number of permissions the user was actually asked about. Permissions that were already granted or
+     *         marked "Don't Ask Again" are answered by the system without asking.
+     */
+    int getDialogsShown() {
+        return mDialogsShown;
+    }
+
+    /**
+     * @return The number of times the engine started a {@link PermisoTrampolineActivity}. The simulator never creates
+     *         one, so hand the engine one yourself.
+     */
+    int getTrampolineStarts() {
+        return mTrampolineStarts;
+    }
+
+
+    // =====================================================================
+    // PermissionBackend
+    // =====================================================================
+
+    @Override
+    public boolean isPermissionGranted(Context context, String permission) {
+        mGrantChecks++;
+        return mGranted.contains(permission);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        mRationaleChecks++;
+        return mDenied.contains(permission) && !mDontAskAgain.contains(permission) && !mGranted.contains(permission);
+    }
+
+    @Override
+    public void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        mSystemRequests++;
+        mPendingDialogs.add(new PendingDialog(mNowMillis + mDialogDelayMillis, mNextSequence++, permissions, requestCode));
+    }
+
+    @Override
+    public int getSdkInt() {
+        return mSdkInt;
+    }
+
+    @Override
+    public int getTargetSdkInt(Context context) {
+        return mTargetSdkInt;
+    }
+
+    @Override
+    public String[] getRequestedPermissions(Context context) {
+        return mRequestedPermissions;
+    }
+
+    @Override
+    public Context getApplicationContext(Context context) {
+        return context;
+    }
+
+    @Override
+    public boolean isFinishing(Activity activity) {
+        return false;
+    }
+
+    @Override
+    public void startTrampoline(Context context) {
+        mTrampolineStarts++;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mNowMillis;
+    }
+
+
+    // =====================================================================
+    // Private
+    // =====================================================================
+
+    private void answer(PendingDialog dialog) {
+        int[] results = new int[dialog.permissions.length];
+        for (int i = 0; i < results.length; i++) {
+            String permission = dialog.permissions[i];
+            if (!mGranted.contains(permission) && !mDontAskAgain.contains(permission)) {
+                mDialogsShown++;
+                switch (nextResponse(permission)) {
+                    case GRANT:
+                        mGranted.add(permission);
+                        break;
+                    case DENY_AND_DONT_ASK_AGAIN:
+                        mDontAskAgain.add(permission);
+                        // Fall through
+                    case DENY:
+                        mDenied.add(permission);
+                        break;
+                }
+            }
+            results[i] = mGranted.contains(permission) ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+        }
+        mPermiso.onRequestPermissionResult(dialog.requestCode, dialog.permissions, results);
+    }
+
+    private Response nextResponse(String permission) {
+        Queue<Response> script = mScripts.get(permission);
+        Response response = script != null ? script.poll() : null;
+        return response != null ? response : mDefaultResponse;
+    }
+
+    private static class PendingDialog implements Comparable<PendingDialog> {
+        final long dueMillis;
+        final long sequence;
+        final String[] permissions;
+        final int requestCode;
+
+        PendingDialog(long dueMillis, long sequence, String[] permissions, int requestCode) {
+            this.dueMillis = dueMillis;
+            this.sequence = sequence;
+            this.permissions = permissions;
+            this.requestCode = requestCode;
+        }
+
+        @Override
+        public int compareTo(PendingDialog other) {
+            if (dueMillis != other.dueMillis) {
+                return dueMillis < other.dueMillis ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
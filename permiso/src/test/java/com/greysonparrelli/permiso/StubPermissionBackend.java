@@ -0,0 +1,111 @@
+package com.greysonparrelli.permiso;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe {@link PermissionBackend} that grants whatever it's told to, never asks for a rationale, and queues up
+ * every system request so the test can answer them. Unless told otherwise, it doesn't know what the app declares, so
+ * every permission is treated as a runtime permission.
+ */
+class StubPermissionBackend implements PermissionBackend {
+
+    final Set<String> grantedPermissions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final ConcurrentLinkedQueue<SystemRequest> systemRequests = new ConcurrentLinkedQueue<>();
+    volatile int sdkInt = 26;
+    // Build.VERSION_CODES.CUR_DEVELOPMENT, so that only sdkInt matters unless a test says otherwise
+    volatile int targetSdkInt = 10000;
+    volatile String[] requestedPermissions;
+    final Set<Activity> finishingActivities = Collections.newSetFromMap(new ConcurrentHashMap<Activity, Boolean>());
+    final AtomicInteger trampolineStarts = new AtomicInteger();
+    volatile long uptimeMillis;
+
+    @Override
+    public boolean isPermissionGranted(Context context, String permission) {
+        return grantedPermissions.contains(permission);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        return false;
+    }
+
+    @Override
+    public void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        systemRequests.add(new SystemRequest(permissions, requestCode));
+    }
+
+    @Override
+    public int getSdkInt() {
+        return sdkInt;
+    }
+
+    @Override
+    public int getTargetSdkInt(Context context) {
+        return targetSdkInt;
+    }
+
+    @Override
+    public String[] getRequestedPermissions(Context context) {
+        return requestedPermissions;
+    }
+
+    @Override
+    public Context getApplicationContext(Context context) {
+        return context;
+    }
+
+    @Override
+    public boolean isFinishing(Activity activity) {
+        return finishingActivities.contains(activity);
+    }
+
+    @Override
+    public void startTrampoline(Context context) {
+        trampolineStarts.incrementAndGet();
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return uptimeMillis;
+    }
+
+    static class SystemRequest {
+        final String[] permissions;
+        final int requestCode;
+
+        SystemRequest(String[] permissions, int requestCode) {
+            this.permissions = permissions;
+            this.requestCode = requestCode;
+        }
+
+        /**
+         * @return Results denying every permission in this request.
+         */
+        int[] denyAll() {
+            return resultsOf(PackageManager.PERMISSION_DENIED);
+        }
+
+        /**
+         * @return Results granting every permission in this request.
+         */
+        int[] grantAll() {
+            return resultsOf(PackageManager.PERMISSION_GRANTED);
+        }
+
+        private int[] resultsOf(int result) {
+            int[] results = new int[permissions.length];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = result;
+            }
+            return results;
+        }
+    }
+}
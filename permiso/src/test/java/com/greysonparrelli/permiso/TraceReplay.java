@@ -0,0 +1,166 @@
+package com.greysonparrelli.permiso;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A production-sized request trace, replayed through the engine on a {@link SimulatedPermissionBackend}'s virtual
+ * clock. The trace looks like a busy app's traffic: bursts of requests from popular screens a few milliseconds apart
+ * (so many of them merge), and permissions regularly revoked from the system settings so users keep being asked. Users
+ * answer the way real users do. Seeded, so every replay is the same.
+ * <p>
+ * Used by {@link PermisoTraceReplayTest} to check the engine stays correct at volume, and by
+ * {@link PermisoTraceReplayBenchmark} to measure how fast it gets through it.
+ */
+final class TraceReplay {
+
+    static final int REQUESTS = 200000;
+
+    private static final long SEED = 42;
+    private static final long DIALOG_DELAY_MILLIS = 800;
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String READ_CALENDAR = "android.permission.READ_CALENDAR";
+    private static final String FINE_LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+
+    private static final String[] ALL_PERMISSIONS = { CAMERA, RECORD_AUDIO, READ_CONTACTS, READ_CALENDAR, FINE_LOCATION };
+
+    /**
+     * The permission sets requested by the screens in the trace, in rough order of popularity.
+     */
+    private static final String[][] SCREENS = {
+            { CAMERA },
+            { CAMERA, RECORD_AUDIO },
+            { READ_CONTACTS },
+            { FINE_LOCATION },
+            { READ_CONTACTS, READ_CALENDAR },
+            { CAMERA, RECORD_AUDIO, FINE_LOCATION }
+    };
+
+    private final List<Event> mEvents;
+
+    TraceReplay() {
+        mEvents = Collections.unmodifiableList(generate());
+    }
+
+    /**
+     * Replays the whole trace, then answers every dialog that's still open.
+     * @param permiso
+     *      The engine to replay through, with an activity set.
+     * @param backend
+     *      A fresh backend, attached to the engine.
+     * @return One callback per request, in the order the requests were made.
+     */
+    List<CountingCallback> replay(Permiso permiso, SimulatedPermissionBackend backend) {
+        backend.setDialogDelay(DIALOG_DELAY_MILLIS);
+        List<CountingCallback> callbacks = new ArrayList<>(REQUESTS);
+        for (Event event : mEvents) {
+            switch (event.type) {
+                case Event.REQUEST:
+                    CountingCallback callback = new CountingCallback();
+                    callbacks.add(callback);
+                    permiso.requestPermissions(callback, event.permissions);
+                    break;
+                case Event.SCRIPT:
+                    backend.script(event.permissions[0], event.response);
+                    break;
+                case Event.REVOKE:
+                    backend.revoke(event.permissions[0]);
+                    break;
+                case Event.WAIT:
+                    backend.advanceBy(event.millis);
+                    break;
+            }
+        }
+        backend.runUntilIdle();
+        return callbacks;
+    }
+
+    private static List<Event> generate() {
+        Random random = new Random(SEED);
+        List<Event> trace = new ArrayList<>();
+        for (String permission : ALL_PERMISSIONS) {
+            trace.add(Event.script(permission, randomResponse(random)));
+        }
+
+        for (int i = 0; i < REQUESTS; i++) {
+            // Skew towards the first screens
+            trace.add(Event.request(SCREENS[(int) (SCREENS.length * Math.pow(random.nextDouble(), 2))]));
+            trace.add(Event.waitFor(random.nextInt(20)));
+
+            if (random.nextInt(20) == 0) {
+                String permission = ALL_PERMISSIONS[random.nextInt(ALL_PERMISSIONS.length)];
+                trace.add(Event.revoke(permission));
+                trace.add(Event.script(permission, randomResponse(random)));
+            }
+        }
+        return trace;
+    }
+
+    private static SimulatedPermissionBackend.Response randomResponse(Random random) {
+        int roll = random.nextInt(100);
+        if (roll < 70) {
+            return SimulatedPermissionBackend.Response.GRANT;
+        } else if (roll < 95) {
+            return SimulatedPermissionBackend.Response.DENY;
+        } else {
+            return SimulatedPermissionBackend.Response.DENY_AND_DONT_ASK_AGAIN;
+        }
+    }
+
+    /**
+     * Counts how many times it's been given results, and provides every rationale right away.
+     */
+    static class CountingCallback implements Permiso.IOnPermissionResult {
+        int invocations;
+
+        @Override
+        public void onPermissionResult(Permiso.ResultSet resultSet) {
+            invocations++;
+        }
+
+        @Override
+        public void onRationaleRequested(Permiso.IOnRationaleProvided callback, String... permissions) {
+            callback.onRationaleProvided();
+        }
+    }
+
+    private static class Event {
+        static final int REQUEST = 0;
+        static final int SCRIPT = 1;
+        static final int REVOKE = 2;
+        static final int WAIT = 3;
+
+        final int type;
+        final String[] permissions;
+        final SimulatedPermissionBackend.Response response;
+        final long millis;
+
+        private Event(int type, String[] permissions, SimulatedPermissionBackend.Response response, long millis) {
+            this.type = type;
+            this.permissions = permissions;
+            this.response = response;
+            this.millis = millis;
+        }
+
+        static Event request(String... permissions) {
+            return new Event(REQUEST, permissions, null, 0);
+        }
+
+        static Event script(String permission, SimulatedPermissionBackend.Response response) {
+            return new Event(SCRIPT, new String[] { permission }, response, 0);
+        }
+
+        static Event revoke(String permission) {
+            return new Event(REVOKE, new String[] { permission }, null, 0);
+        }
+
+        static Event waitFor(long millis) {
+            return new Event(WAIT, null, null, millis);
+        }
+    }
+}